@@ -0,0 +1,47 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One point added to an adaptive table whose squares are all split down to the level of the code
+// length (threshold 1), so every point walks the whole hierarchy.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AdaptiveBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13"})
+  public String length;
+
+  private MeshAdaptive table;
+  private double[] lat;
+  private double[] lon;
+  private int i;
+
+  @Setup
+  public void setup(){
+    double[][] p = MeshInputs.points();
+    lat = p[0];
+    lon = p[1];
+    table = new MeshAdaptive(1, MeshInputs.level(length), Integer.MAX_VALUE);
+    for(int r = 0; r < 8; r++) table.add(lat, lon, 0, MeshInputs.SIZE);
+  }
+
+  @Benchmark
+  public boolean add(){
+    i = (i + 1) & MeshInputs.MASK;
+    return table.add(lat[i], lon[i]);
+  }
+}
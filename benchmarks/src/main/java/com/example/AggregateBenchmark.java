@@ -0,0 +1,51 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One point added to a table already holding the codes of all inputs, with and without a value.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AggregateBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13", "13ex"})
+  public String length;
+
+  private final MeshAggregate table = new MeshAggregate(MeshInputs.SIZE);
+  private long[] codes;
+  private int i;
+
+  @Setup
+  public void setup(){
+    codes = MeshInputs.codes(length);
+    table.add(codes, null, 0, MeshInputs.SIZE);
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public void add(){
+    table.add(codes[next()]);
+  }
+
+  @Benchmark
+  public void add_value(){
+    int k = next();
+    table.add(codes[k], k);
+  }
+}
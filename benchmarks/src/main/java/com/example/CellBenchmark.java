@@ -0,0 +1,65 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Global row and column of one code, and the code of one row and column.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CellBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private final int[] out = new int[2];
+  private long[] codes;
+  private int[] rows;
+  private int[] cols;
+  private boolean extension;
+  private int level;
+  private int i;
+
+  @Setup
+  public void setup(){
+    codes = MeshInputs.codes(length);
+    extension = MeshInputs.extension(length);
+    level = MeshInputs.level(length);
+    rows = new int[codes.length];
+    cols = new int[codes.length];
+    for(int k = 0; k < codes.length; k++){
+      wm.meshcode_to_cell(codes[k], extension, out, 0);
+      rows[k] = out[0];
+      cols[k] = out[1];
+    }
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public int meshcode_to_cell(){
+    wm.meshcode_to_cell(codes[next()], extension, out, 0);
+    return out[0] + out[1];
+  }
+
+  @Benchmark
+  public long cell_to_meshcode(){
+    int k = next();
+    return wm.cell_to_meshcode(level, rows[k], cols[k]);
+  }
+}
@@ -0,0 +1,63 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Covers of a half degree box and of a polygon of about the same size around Tokyo Bay
+// (a municipal-sized region), reported per millisecond as one cover takes microseconds to
+// milliseconds depending on the level.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoverBenchmark {
+  @Param({"8", "10", "12", "13ex"})
+  public String length;
+
+  private static final double[] LAT = {35.30, 35.36, 35.52, 35.61, 35.78, 35.82, 35.74, 35.63, 35.55, 35.41, 35.33};
+  private static final double[] LON = {139.52, 139.71, 139.66, 139.93, 139.97, 139.80, 139.71, 139.78, 139.60, 139.48, 139.41};
+
+  private final Worldmesh wm = new Worldmesh();
+  private int level;
+  private long sum;
+
+  @Setup
+  public void setup(){
+    level = MeshInputs.level(length);
+  }
+
+  private void add(long code){
+    sum += code;
+  }
+
+  @Benchmark
+  public long meshcode_cover_bbox(){
+    sum = 0;
+    wm.meshcode_cover_bbox(level, 35.30, 139.41, 35.82, 139.97, this::add);
+    return sum;
+  }
+
+  @Benchmark
+  public long meshcode_cover_polygon(){
+    sum = 0;
+    wm.meshcode_cover_polygon(level, LAT, LON, 0, LAT.length, this::add);
+    return sum;
+  }
+
+  @Benchmark
+  public long meshcode_cover_polygon_stream(){
+    return wm.meshcode_cover_polygon(level, LAT, LON, 0, LAT.length).sum();
+  }
+}
@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private final double[] grid = new double[4];
+  private long[] codes;
+  private boolean extension;
+  private int i;
+
+  @Setup
+  public void setup(){
+    codes = MeshInputs.codes(length);
+    extension = MeshInputs.extension(length);
+  }
+
+  private long next(){
+    i = (i + 1) & MeshInputs.MASK;
+    return codes[i];
+  }
+
+  @Benchmark
+  public Worldmesh meshcode_to_latlong_grid(){
+    return wm.meshcode_to_latlong_grid(next(), extension);
+  }
+
+  @Benchmark
+  public double[] meshcode_to_latlong_grid_array(){
+    wm.meshcode_to_latlong_grid(next(), extension, grid);
+    return grid;
+  }
+
+  @Benchmark
+  public Worldmesh meshcode_to_latlong_NW(){
+    return wm.meshcode_to_latlong_NW(next(), extension);
+  }
+
+  @Benchmark
+  public Worldmesh meshcode_to_latlong_SW(){
+    return wm.meshcode_to_latlong_SW(next(), extension);
+  }
+
+  @Benchmark
+  public Worldmesh meshcode_to_latlong_NE(){
+    return wm.meshcode_to_latlong_NE(next(), extension);
+  }
+
+  @Benchmark
+  public Worldmesh meshcode_to_latlong_SE(){
+    return wm.meshcode_to_latlong_SE(next(), extension);
+  }
+}
@@ -0,0 +1,87 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+  private final Worldmesh wm = new Worldmesh();
+  private final long[] all = new long[7];
+  private double[] lat;
+  private double[] lon;
+  private int i;
+
+  @Setup
+  public void setup(){
+    double[][] p = MeshInputs.points();
+    lat = p[0];
+    lon = p[1];
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public long cal_meshcode1(){
+    int k = next();
+    return wm.cal_meshcode1(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long cal_meshcode2(){
+    int k = next();
+    return wm.cal_meshcode2(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long cal_meshcode3(){
+    int k = next();
+    return wm.cal_meshcode3(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long cal_meshcode4(){
+    int k = next();
+    return wm.cal_meshcode4(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long cal_meshcode5(){
+    int k = next();
+    return wm.cal_meshcode5(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long cal_meshcode6(){
+    int k = next();
+    return wm.cal_meshcode6(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long cal_meshcode_ex100(){
+    int k = next();
+    return wm.cal_meshcode_ex100(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public long[] cal_meshcode_all(){
+    int k = next();
+    wm.cal_meshcode_all(lat[k], lon[k], all);
+    return all;
+  }
+}
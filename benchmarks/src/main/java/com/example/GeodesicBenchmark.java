@@ -0,0 +1,88 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Vincenty on the three kinds of pairs cal_area_from_latlong measures (along a parallel,
+// along a meridian) plus the cell diagonal, and cal_area_from_meshcode and cal_area_from_table for every code length.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeodesicBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private final Worldmesh res = new Worldmesh();
+  private long[] codes;
+  private boolean extension;
+  private double[] lat0;
+  private double[] long0;
+  private double[] lat1;
+  private double[] long1;
+  private int i;
+
+  @Setup
+  public void setup(){
+    codes = MeshInputs.codes(length);
+    extension = MeshInputs.extension(length);
+    lat0 = new double[MeshInputs.SIZE];
+    long0 = new double[MeshInputs.SIZE];
+    lat1 = new double[MeshInputs.SIZE];
+    long1 = new double[MeshInputs.SIZE];
+    for(int k = 0; k < MeshInputs.SIZE; k++){
+      Worldmesh g = wm.meshcode_to_latlong_grid(codes[k], extension);
+      lat0[k] = g.lat0;
+      long0[k] = g.long0;
+      lat1[k] = g.lat1;
+      long1[k] = g.long1;
+    }
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public double Vincenty_parallel(){
+    int k = next();
+    return wm.Vincenty(lat0[k], long0[k], lat0[k], long1[k]);
+  }
+
+  @Benchmark
+  public double Vincenty_meridian(){
+    int k = next();
+    return wm.Vincenty(lat0[k], long0[k], lat1[k], long0[k]);
+  }
+
+  // diagonal of the cell, from the north western to the south eastern corner
+  @Benchmark
+  public double Vincenty_diagonal(){
+    int k = next();
+    return wm.Vincenty(lat0[k], long0[k], lat1[k], long1[k]);
+  }
+
+  @Benchmark
+  public Worldmesh cal_area_from_meshcode(){
+    return wm.cal_area_from_meshcode(codes[next()], extension);
+  }
+
+  @Benchmark
+  public Worldmesh cal_area_from_table(){
+    wm.cal_area_from_table(codes[next()], extension, res);
+    return res;
+  }
+}
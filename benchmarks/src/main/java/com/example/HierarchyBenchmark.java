@@ -0,0 +1,65 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parent (80km square), containment test against it and descendant range of it down to
+// the level of the code, for every code length.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HierarchyBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private final long[] out = new long[2];
+  private long[] codes;
+  private long[] parents;
+  private boolean extension;
+  private int level;
+  private int i;
+
+  @Setup
+  public void setup(){
+    codes = MeshInputs.codes(length);
+    extension = MeshInputs.extension(length);
+    level = MeshInputs.level(length);
+    parents = new long[MeshInputs.SIZE];
+    for(int k = 0; k < MeshInputs.SIZE; k++) parents[k] = wm.meshcode_parent(codes[k], extension, 1);
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public long meshcode_parent(){
+    return wm.meshcode_parent(codes[next()], extension, 1);
+  }
+
+  @Benchmark
+  public boolean meshcode_contains(){
+    int k = next();
+    return wm.meshcode_contains(parents[k], codes[k], extension);
+  }
+
+  @Benchmark
+  public long[] meshcode_descendant_range(){
+    wm.meshcode_descendant_range(parents[next()], false, level, out, 0);
+    return out;
+  }
+}
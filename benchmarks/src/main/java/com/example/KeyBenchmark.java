@@ -0,0 +1,63 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Key of one code, code of one key, and the ranges of keys of a half degree box around Tokyo Bay
+// (as in CoverBenchmark) split into at most 16 ranges.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyBenchmark {
+  @Param({"6", "8", "10", "11", "12", "13", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private final long[] ranges = new long[32];
+  private long[] codes;
+  private long[] keys;
+  private boolean extension;
+  private int level;
+  private int i;
+
+  @Setup
+  public void setup(){
+    codes = MeshInputs.codes(length);
+    extension = MeshInputs.extension(length);
+    level = MeshInputs.level(length);
+    keys = new long[codes.length];
+    for(int k = 0; k < codes.length; k++) keys[k] = wm.meshcode_to_key(codes[k], extension);
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public long meshcode_to_key(){
+    return wm.meshcode_to_key(codes[next()], extension);
+  }
+
+  @Benchmark
+  public long key_to_meshcode(){
+    return wm.key_to_meshcode(keys[next()]);
+  }
+
+  @Benchmark
+  public int meshcode_key_ranges(){
+    return wm.meshcode_key_ranges(level, 35.30, 139.41, 35.82, 139.97, 16, ranges, 0);
+  }
+}
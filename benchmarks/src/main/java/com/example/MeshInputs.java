@@ -0,0 +1,69 @@
+package com.example;
+
+import java.util.Random;
+
+// Benchmark inputs. The points cover all eight area codes (northern/southern hemisphere,
+// eastern/western hemisphere, |longitude| below/above 100 degrees) in equal numbers and
+// in shuffled order, so a benchmark cycling through them sees every branch of the codec.
+final class MeshInputs {
+  static final int SIZE = 1024;
+  static final int MASK = SIZE - 1;
+
+  // code lengths accepted by meshcode_to_latlong_grid; "13ex" is the extended 100m code
+  static final String[] LENGTHS = {"6", "8", "10", "11", "12", "13", "13ex"};
+
+  private MeshInputs(){
+  }
+
+  // returns {latitudes, longitudes}
+  static double[][] points(){
+    Random rnd = new Random(20201014L);
+    double[] lat = new double[SIZE];
+    double[] lon = new double[SIZE];
+    for(int i = 0; i < SIZE; i++){
+      int area = i % 8; // area code - 1
+      double la = rnd.nextDouble() * 80.0;
+      double lo = (area & 1) == 0 ? rnd.nextDouble() * 100.0 : 100.0 + rnd.nextDouble() * 80.0;
+      lat[i] = (area & 4) == 0 ? la : -la;
+      lon[i] = (area & 2) == 0 ? lo : -lo;
+    }
+    for(int i = SIZE - 1; i > 0; i--){
+      int j = rnd.nextInt(i + 1);
+      double t = lat[i]; lat[i] = lat[j]; lat[j] = t;
+      t = lon[i]; lon[i] = lon[j]; lon[j] = t;
+    }
+    return new double[][]{lat, lon};
+  }
+
+  static boolean extension(String length){
+    return length.equals("13ex");
+  }
+
+  // level (1 to 6, 7 : extended 100m) of the codes of the given length
+  static int level(String length){
+    switch(length){
+    case "6": return 1;
+    case "8": return 2;
+    case "10": return 3;
+    case "11": return 4;
+    case "12": return 5;
+    case "13": return 6;
+    case "13ex": return 7;
+    default: throw new IllegalArgumentException("unknown length: " + length);
+    }
+  }
+
+  // grid square codes of the given length for all points
+  static long[] codes(String length){
+    double[][] p = points();
+    Worldmesh wm = new Worldmesh();
+    long[] codes = new long[SIZE];
+    long[] all = new long[7];
+    int level = level(length);
+    for(int i = 0; i < SIZE; i++){
+      wm.cal_meshcode_all(p[0][i], p[1][i], all);
+      codes[i] = all[level-1];
+    }
+    return codes;
+  }
+}
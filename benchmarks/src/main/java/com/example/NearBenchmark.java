@@ -0,0 +1,81 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The squares whose centres lie within 5 square heights of a point (about 80 squares) with
+// meshcode_within, against Vincenty to the centre of every square of the box around the circle
+// (the brute force way), and the 10 nearest squares with meshcode_nearest.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NearBenchmark {
+  @Param({"10", "13"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private int level;
+  private double radius;
+  private double[] lat;
+  private double[] lon;
+  private final long[] out = new long[10];
+  private final double[] distance = new double[10];
+  private final int[] cell = new int[3];
+  private long sum;
+  private int i;
+
+  @Setup
+  public void setup(){
+    level = MeshInputs.level(length);
+    radius = 5 * 111000.0 * 90.0 / Worldmesh.LEVEL_ROWS[level];
+    double[][] p = MeshInputs.points();
+    lat = p[0];
+    lon = p[1];
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public long within(){
+    int k = next();
+    sum = 0;
+    wm.meshcode_within(level, lat[k], lon[k], radius, c -> sum += c);
+    return(sum);
+  }
+
+  @Benchmark
+  public long bruteForce(){
+    int k = next();
+    double la = lat[k], lo = lon[k];
+    double dlat = radius / 110000.0;
+    double dlon = dlat / Math.cos(Math.toRadians(Math.abs(la) + dlat));
+    sum = 0;
+    wm.meshcode_cover_bbox(level, la - dlat, lo - dlon, la + dlat, lo + dlon, c -> {
+      wm.meshcode_to_cell(c, false, cell, 0);
+      double d = wm.Vincenty(la, lo, (cell[0] + 0.5) * 90.0 / Worldmesh.LEVEL_ROWS[level], (cell[1] + 0.5) * 180.0 / Worldmesh.LEVEL_COLS[level]);
+      if(d <= radius) sum += c;
+    });
+    return(sum);
+  }
+
+  @Benchmark
+  public int nearest(){
+    int k = next();
+    return(wm.meshcode_nearest(level, lat[k], lon[k], 10, 1e6, null, out, distance, 0));
+  }
+}
@@ -0,0 +1,64 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Overlap areas of the CoverBenchmark polygon around Tokyo Bay (about 930 km^2) with the squares
+// of a level, in one thread and over the 80km squares in parallel, next to the cover of the same
+// polygon (the squares without their areas).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OverlapBenchmark {
+  @Param({"8", "10", "12", "13ex"})
+  public String length;
+
+  private static final double[] LAT = {35.30, 35.36, 35.52, 35.61, 35.78, 35.82, 35.74, 35.63, 35.55, 35.41, 35.33};
+  private static final double[] LON = {139.52, 139.71, 139.66, 139.93, 139.97, 139.80, 139.71, 139.78, 139.60, 139.48, 139.41};
+
+  private final Worldmesh wm = new Worldmesh();
+  private int level;
+  private double sum;
+
+  @Setup
+  public void setup(){
+    level = MeshInputs.level(length);
+    // the area table of the level is built on first use
+    wm.meshcode_overlap_polygon(level, LAT, LON, 0, LAT.length, false, this::add);
+  }
+
+  private void add(long code, double area, double fraction){
+    sum += area;
+  }
+
+  private synchronized void add_synchronized(long code, double area, double fraction){
+    sum += area;
+  }
+
+  @Benchmark
+  public double meshcode_overlap_polygon(){
+    sum = 0;
+    wm.meshcode_overlap_polygon(level, LAT, LON, 0, LAT.length, false, this::add);
+    return sum;
+  }
+
+  @Benchmark
+  public double meshcode_overlap_polygon_parallel(){
+    sum = 0;
+    wm.meshcode_overlap_polygon(level, LAT, LON, 0, LAT.length, true, this::add_synchronized);
+    return sum;
+  }
+}
@@ -0,0 +1,75 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One lookup in a raster file of the squares of one degree around Tokyo with a value in every
+// square, against a HashMap<Long, Double> holding the same values.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RasterBenchmark {
+  @Param({"10", "12", "13", "13ex"})
+  public String length;
+
+  private Path file;
+  private MeshRaster raster;
+  private final Map<Long, Double> map = new HashMap<>();
+  private long[] codes;
+  private int i;
+
+  @Setup
+  public void setup() throws IOException {
+    Worldmesh wm = new Worldmesh();
+    int level = MeshInputs.level(length);
+    file = Files.createTempFile("raster", ".bin");
+    long[] all = wm.meshcode_cover_bbox(level, 35.0, 139.0, 35.99, 139.99).toArray();
+    try(MeshRaster.Builder b = new MeshRaster.Builder(file, level, 35.0, 139.0, 35.99, 139.99)){
+      for(long c : all){
+        b.put(c, c % 1000);
+        map.put(c, (double)(c % 1000));
+      }
+    }
+    raster = MeshRaster.open(file);
+    codes = new long[MeshInputs.SIZE];
+    for(int k = 0; k < codes.length; k++) codes[k] = all[(int)((long)k * 7919 % all.length)];
+  }
+
+  @TearDown
+  public void teardown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public double get(){
+    return raster.get(codes[next()]);
+  }
+
+  @Benchmark
+  public Double hashmap_get(){
+    return map.get(codes[next()]);
+  }
+}
@@ -0,0 +1,99 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Requests to a MeshServer on localhost through java.net.http: single encode calls from 4 client
+// threads (coalesced by the server), and batches of the MeshInputs points encoded at the 1km
+// level in one POST, as binary and as text records.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerBenchmark {
+  private HttpServer server;
+  private HttpClient client;
+  private String base;
+  private String[] single;
+  private byte[] binary;
+  private byte[] text;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    server = MeshServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    double[][] p = MeshInputs.points();
+    single = new String[MeshInputs.SIZE];
+    ByteBuffer b = ByteBuffer.allocate(16 * MeshInputs.SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < MeshInputs.SIZE; i++){
+      single[i] = base + "/encode?level=3&lat=" + p[0][i] + "&lon=" + p[1][i];
+      b.putDouble(p[0][i]).putDouble(p[1][i]);
+      sb.append(p[0][i]).append(',').append(p[1][i]).append('\n');
+    }
+    binary = b.array();
+    text = sb.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown(){
+    server.stop(0);
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int i;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public byte[] single_encode(Cursor c) throws Exception {
+    c.i = (c.i + 1) & MeshInputs.MASK;
+    return(send(HttpRequest.newBuilder(URI.create(single[c.i])).GET().build()));
+  }
+
+  @Benchmark
+  public byte[] batch_encode_binary() throws Exception {
+    return(send(HttpRequest.newBuilder(URI.create(base + "/encode?level=3"))
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(binary)).build()));
+  }
+
+  @Benchmark
+  public byte[] batch_encode_text() throws Exception {
+    return(send(HttpRequest.newBuilder(URI.create(base + "/encode?level=3"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(text)).build()));
+  }
+
+  private byte[] send(HttpRequest request) throws Exception {
+    HttpResponse<byte[]> r = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    if(r.statusCode() != 200) throw new IllegalStateException("status " + r.statusCode());
+    return(r.body());
+  }
+}
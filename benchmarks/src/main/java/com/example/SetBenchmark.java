@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Set algebra on the polygon cover of CoverBenchmark and a box overlapping half of it (58,000 and
+// 108,000 125m squares), the export of the polygon set as mixed-level codes, and one contains of
+// a code of the polygon cover, reported per millisecond.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SetBenchmark {
+  @Param({"10", "12", "13", "13ex"})
+  public String length;
+
+  private static final double[] LAT = {35.30, 35.36, 35.52, 35.61, 35.78, 35.82, 35.74, 35.63, 35.55, 35.41, 35.33};
+  private static final double[] LON = {139.52, 139.71, 139.66, 139.93, 139.97, 139.80, 139.71, 139.78, 139.60, 139.48, 139.41};
+
+  private MeshSet polygon;
+  private MeshSet box;
+  private long[] codes;
+  private int i;
+
+  @Setup
+  public void setup(){
+    Worldmesh wm = new Worldmesh();
+    int level = MeshInputs.level(length);
+    long[] p = wm.meshcode_cover_polygon(level, LAT, LON, 0, LAT.length).toArray();
+    long[] b = wm.meshcode_cover_bbox(level, 35.55, 139.60, 35.90, 140.10).toArray();
+    polygon = MeshSet.of(level, p, 0, p.length);
+    box = MeshSet.of(level, b, 0, b.length);
+    codes = new long[MeshInputs.SIZE];
+    for(int k = 0; k < codes.length; k++) codes[k] = p[(int)((long)k * p.length / codes.length)];
+  }
+
+  @Benchmark
+  public MeshSet union(){
+    return polygon.union(box);
+  }
+
+  @Benchmark
+  public MeshSet intersection(){
+    return polygon.intersection(box);
+  }
+
+  @Benchmark
+  public MeshSet difference(){
+    return polygon.difference(box);
+  }
+
+  @Benchmark
+  public long[] meshcodes(){
+    return polygon.meshcodes();
+  }
+
+  @Benchmark
+  public boolean contains(){
+    return polygon.contains(codes[i = (i + 1) & MeshInputs.MASK]);
+  }
+}
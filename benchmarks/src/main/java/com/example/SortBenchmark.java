@@ -0,0 +1,79 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// 32768 points in time order (64 random walks of 512 steps of about 50m from the MeshInputs
+// points) encoded and sorted by code and by Z-order key with meshcode_sort_batch, against
+// encoding them with cal_meshcode_batch and sorting the codes alone with Arrays.sort.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SortBenchmark {
+  private static final int WALKS = 64;
+  private static final int STEPS = 512;
+
+  @Param({"10", "13", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private int level;
+  private double[] lat;
+  private double[] lon;
+  private long[] out;
+  private int[] order;
+
+  @Setup
+  public void setup(){
+    level = MeshInputs.level(length);
+    double[][] p = MeshInputs.points();
+    Random rnd = new Random(11);
+    lat = new double[WALKS * STEPS];
+    lon = new double[WALKS * STEPS];
+    for(int w = 0; w < WALKS; w++){
+      double la = p[0][w], lo = p[1][w];
+      for(int i = 0; i < STEPS; i++){
+        la = Math.max(-89.0, Math.min(89.0, la + (rnd.nextDouble() - 0.5) * 0.001));
+        lo = Math.max(-179.0, Math.min(179.0, lo + (rnd.nextDouble() - 0.5) * 0.001));
+        lat[w * STEPS + i] = la;
+        lon[w * STEPS + i] = lo;
+      }
+    }
+    out = new long[lat.length];
+    order = new int[lat.length];
+  }
+
+  @Benchmark
+  public long meshcode_sort_batch(){
+    wm.meshcode_sort_batch(level, false, lat, lon, 0, lat.length, out, order, 0);
+    return out[order[0] & 1023];
+  }
+
+  @Benchmark
+  public long meshcode_sort_batch_zorder(){
+    wm.meshcode_sort_batch(level, true, lat, lon, 0, lat.length, out, order, 0);
+    return out[order[0] & 1023];
+  }
+
+  @Benchmark
+  public long encode_and_arrays_sort(){
+    wm.cal_meshcode_batch(level, lat, lon, 0, lat.length, out, 0);
+    Arrays.sort(out);
+    return out[1023];
+  }
+}
@@ -0,0 +1,79 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of the MeshStats instrumentation: the same calls in a JVM without it (off, the default)
+// and in a JVM started with -Dworldmesh.stats=true (on).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatsBenchmark {
+  private final Worldmesh wm = new Worldmesh();
+  private final double[] grid = new double[4];
+  private double[] lat;
+  private double[] lon;
+  private long[] codes;
+  private int i;
+
+  @Setup
+  public void setup(){
+    double[][] p = MeshInputs.points();
+    lat = p[0];
+    lon = p[1];
+    codes = MeshInputs.codes("10");
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public long encode_off(){
+    int k = next();
+    return wm.cal_meshcode3(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dworldmesh.stats=true")
+  public long encode_on(){
+    int k = next();
+    return wm.cal_meshcode3(lat[k], lon[k]);
+  }
+
+  @Benchmark
+  public boolean decode_off(){
+    return wm.meshcode_to_latlong_grid(codes[next()], false, grid, 0);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dworldmesh.stats=true")
+  public boolean decode_on(){
+    return wm.meshcode_to_latlong_grid(codes[next()], false, grid, 0);
+  }
+
+  @Benchmark
+  public double vincenty_off(){
+    int k = next();
+    return wm.Vincenty(lat[k], lon[k], lat[k] + 0.1, lon[k] + 0.1);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dworldmesh.stats=true")
+  public double vincenty_on(){
+    int k = next();
+    return wm.Vincenty(lat[k], lon[k], lat[k] + 0.1, lon[k] + 0.1);
+  }
+}
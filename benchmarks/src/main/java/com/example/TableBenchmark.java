@@ -0,0 +1,90 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One point lookup in a table file of 200,000 points around Tokyo (the squares holding them, one
+// value each), and the sum over the codes of the table in the 1km square of a code.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TableBenchmark {
+  @Param({"10", "12", "13", "13ex"})
+  public String length;
+
+  private Path file;
+  private MeshTable table;
+  private long[] codes;
+  private long[] parents;
+  private boolean extension;
+  private int i;
+
+  @Setup
+  public void setup() throws IOException {
+    Worldmesh wm = new Worldmesh();
+    int level = MeshInputs.level(length);
+    extension = MeshInputs.extension(length);
+    Random rnd = new Random(1);
+    long[] all = new long[7];
+    long[] points = new long[200000];
+    for(int k = 0; k < points.length; k++){
+      wm.cal_meshcode_all(35.6 + 0.2*rnd.nextGaussian(), 139.7 + 0.2*rnd.nextGaussian(), all, 0);
+      points[k] = all[level-1];
+    }
+    Arrays.sort(points);
+    file = Files.createTempFile("table", ".bin");
+    try(MeshTable.Builder b = new MeshTable.Builder(file, level, 1)){
+      for(int k = 0; k < points.length; k++){
+        if(k == 0 || points[k] != points[k-1]) b.add(points[k], k);
+      }
+    }
+    table = MeshTable.open(file);
+    codes = new long[MeshInputs.SIZE];
+    parents = new long[MeshInputs.SIZE];
+    for(int k = 0; k < codes.length; k++){
+      codes[k] = points[(int)((long)k * 7919 % points.length)];
+      parents[k] = wm.meshcode_parent(codes[k], extension, 3);
+    }
+  }
+
+  @TearDown
+  public void teardown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private int next(){
+    return i = (i + 1) & MeshInputs.MASK;
+  }
+
+  @Benchmark
+  public double get(){
+    return table.get(codes[next()], 0);
+  }
+
+  @Benchmark
+  public double descendants(){
+    MeshTable.Cursor c = table.descendants(parents[next()], extension);
+    double s = 0;
+    while(c.next()) s += c.value(0);
+    return s;
+  }
+}
@@ -0,0 +1,107 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The squares crossed by 64 trajectories of 32 points about 150m apart (starting from the
+// MeshInputs points), walked with meshcode_trace_batch, against encoding points put along the
+// segments a quarter of a square apart (made in setup) with cal_meshcode_batch, which may still
+// miss squares whose corner a segment clips.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceBenchmark {
+  private static final int TRAJECTORIES = 64;
+  private static final int POINTS = 32;
+
+  @Param({"10", "12", "13ex"})
+  public String length;
+
+  private final Worldmesh wm = new Worldmesh();
+  private int level;
+  private double[] lat;
+  private double[] lon;
+  private int[] start;
+  private double[] denseLat;
+  private double[] denseLon;
+  private long[] out;
+  private long sum;
+
+  @Setup
+  public void setup(){
+    level = MeshInputs.level(length);
+    double[][] p = MeshInputs.points();
+    Random rnd = new Random(7);
+    lat = new double[TRAJECTORIES * POINTS];
+    lon = new double[TRAJECTORIES * POINTS];
+    start = new int[TRAJECTORIES + 1];
+    for(int t = 0; t < TRAJECTORIES; t++){
+      start[t+1] = start[t] + POINTS;
+      double heading = rnd.nextDouble() * 2 * Math.PI;
+      for(int i = 0; i < POINTS; i++){
+        int k = t * POINTS + i;
+        if(i == 0){
+          lat[k] = p[0][t];
+          lon[k] = p[1][t];
+        }else{
+          heading += 0.3 * rnd.nextGaussian();
+          lat[k] = lat[k-1] + 0.00135 * Math.cos(heading);
+          lon[k] = lon[k-1] + 0.00135 * Math.sin(heading) / Math.cos(Math.toRadians(lat[k-1]));
+        }
+      }
+    }
+    // points a quarter of a square apart along every segment
+    double step = Math.min(90.0 / Worldmesh.LEVEL_ROWS[level], 180.0 / Worldmesh.LEVEL_COLS[level]) / 4;
+    int n = 0;
+    double[] dl = new double[1 << 16], dn = new double[1 << 16];
+    for(int t = 0; t < TRAJECTORIES; t++){
+      for(int k = start[t]; k < start[t+1] - 1; k++){
+        int m = (int)Math.ceil(Math.hypot(lat[k+1] - lat[k], lon[k+1] - lon[k]) / step);
+        for(int s = 0; s < m; s++){
+          if(n == dl.length){
+            dl = Arrays.copyOf(dl, 2*n);
+            dn = Arrays.copyOf(dn, 2*n);
+          }
+          dl[n] = lat[k] + (lat[k+1] - lat[k]) * s / m;
+          dn[n] = lon[k] + (lon[k+1] - lon[k]) * s / m;
+          n++;
+        }
+      }
+    }
+    denseLat = Arrays.copyOf(dl, n);
+    denseLon = Arrays.copyOf(dn, n);
+    out = new long[n];
+  }
+
+  @Benchmark
+  public long trace(){
+    sum = 0;
+    wm.meshcode_trace_batch(level, lat, lon, start, 0, TRAJECTORIES, (t, code, enter, exit, len) -> sum += code);
+    return(sum);
+  }
+
+  @Benchmark
+  public long sampled(){
+    wm.cal_meshcode_batch(level, denseLat, denseLon, 0, denseLat.length, out, 0);
+    long s = 0;
+    for(int i = 0; i < out.length; i++){
+      if(i == 0 || out[i] != out[i-1]) s += out[i];
+    }
+    return(s);
+  }
+}
@@ -1,9 +1,60 @@
 package com.example;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 
 public class Main {
 
-    public static void main(String[] args) {
+    // java com.example.Main
+    // : print the grid square of a sample position and its neighbours
+    // java com.example.Main encode <level> <input> <output> [csv|bin]
+    // : encode every point of input into the grid square code of level (1 to 6, 7 : extended 100m)
+    //   and write the codes to output in input order (see PointIngest for the formats; csv by default)
+    // java com.example.Main sort <level> <input> <output> [csv|bin] [code|zorder]
+    // : write the points of input to output with their codes of level, sorted by code (or by Z-order key),
+    //   spilling sorted runs of -Dworldmesh.sort.memory bytes of input to disk for larger files (see PointSort)
+    // java com.example.Main serve [port]
+    // : serve encode, decode, area, neighbour and distance calls over HTTP on localhost (8080 by default,
+    //   see MeshServer for the requests) until the process is stopped
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("serve")) {
+            if (args.length > 2) {
+                System.err.println("usage: java com.example.Main serve [port]");
+                System.exit(2);
+            }
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                args.length == 2 ? Integer.parseInt(args[1]) : 8080);
+            InetSocketAddress bound = MeshServer.start(address).getAddress();
+            System.err.println("listening on http://" + bound.getHostString() + ":" + bound.getPort());
+            return;
+        }
+        if (args.length > 0 && args[0].equals("sort")) {
+            if (args.length < 4 || args.length > 6
+                || (args.length >= 5 && !args[4].equals("csv") && !args[4].equals("bin"))
+                || (args.length == 6 && !args[5].equals("code") && !args[5].equals("zorder"))) {
+                System.err.println("usage: java com.example.Main sort <level> <input> <output> [csv|bin] [code|zorder]");
+                System.exit(2);
+            }
+            long start = System.nanoTime();
+            long n = PointSort.run(Integer.parseInt(args[1]), args.length == 6 && args[5].equals("zorder"),
+                Paths.get(args[2]), Paths.get(args[3]), args.length >= 5 && args[4].equals("bin"), PointSort.MEMORY);
+            System.err.println(String.format("%d points in %.3f s", n, (System.nanoTime() - start) * 1e-9));
+            return;
+        }
+        if (args.length > 0) {
+            if (!args[0].equals("encode") || args.length < 4 || args.length > 5
+                || (args.length == 5 && !args[4].equals("csv") && !args[4].equals("bin"))) {
+                System.err.println("usage: java com.example.Main encode <level> <input> <output> [csv|bin]");
+                System.exit(2);
+            }
+            long start = System.nanoTime();
+            long n = PointIngest.run(Integer.parseInt(args[1]), Paths.get(args[2]), Paths.get(args[3]),
+                args.length == 5 && args[4].equals("bin"));
+            System.err.println(String.format("%d points in %.3f s", n, (System.nanoTime() - start) * 1e-9));
+            return;
+        }
         Worldmesh wm = new Worldmesh();
         double latitude = 35.590676;
         double longitude = 139.671488;
@@ -19,13 +70,13 @@ public class Main {
             wmSW.longitude, wmSW.latitude,
             wmNE.longitude, wmNE.latitude,
             wmSE.longitude, wmSE.latitude));
-        long upperMesh = wm.cal_meshcode3(wmNE.latitude + 0.000001,wmNE.longitude);
+        long upperMesh = wm.meshcode_neighbour(wmSample, false, 1, 0);
         System.out.println(("Upper: " + upperMesh));
-        long lowerMesh = wm.cal_meshcode3(wmSE.latitude - 0.000001,wmSE.longitude);
+        long lowerMesh = wm.meshcode_neighbour(wmSample, false, -1, 0);
         System.out.println(("Lower: " + lowerMesh));
-        long leftMesh = wm.cal_meshcode3(wmNW.latitude,wmNW.longitude - 0.000001);
+        long leftMesh = wm.meshcode_neighbour(wmSample, false, 0, -1);
         System.out.println(("Left: " + leftMesh));
-        long rightMesh = wm.cal_meshcode3(wmNE.latitude,wmNE.longitude + 0.000001);
+        long rightMesh = wm.meshcode_neighbour(wmSample, false, 0, 1);
         System.out.println(("Right: " + rightMesh));
     }
 }
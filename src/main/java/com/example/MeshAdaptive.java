@@ -0,0 +1,188 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// Point counts on grid squares of mixed levels, refined where the points are dense.
+//
+// Counting starts on 80km squares. Once a square has counted threshold points it is split, and the
+// later points falling in it are counted one level finer (80km, 10km, 1km, 500m, 250m, 125m, down to
+// maxLevel), so dense areas end up on fine squares and sparse areas stay on coarse ones. The points
+// are not kept: every point costs one pass of the encoder (Worldmesh.cal_meshcode_all) and one hash
+// table lookup per level walked down. The table holds at most maxCells squares (16 bytes per slot);
+// when it is full no square is split any more, a point whose finer square is new is counted in the
+// square it has reached, and a point whose 80km square is new is not counted (see dropped).
+//
+// forEach reports the unsplit squares with points, a set of codes of mixed levels which do not
+// overlap and which meshcode_to_latlong_grid decodes directly. The points a square counted before it
+// was split are shared among its children in proportion to the points which reached them, so the
+// reported counts are estimates summing to the number of points added.
+final class MeshAdaptive {
+  private static final float LOAD = 0.75f;
+  private static final long SPLIT = 1L << 62;   // flag in counts : the square has been split
+
+  private final long threshold;
+  private final int maxLevel;
+  private final int maxCells;
+  private final Worldmesh wm = new Worldmesh();
+  private final long[] codes = new long[7];
+  private long[] keys;
+  private long[] counts;   // points counted in the square itself (not in its children), | SPLIT
+  private int size;
+  private int shift;
+  private long total;
+  private long dropped;
+
+  // threshold : points after which a square is split (at least 1)
+  // maxLevel : finest level (1 to 6 : 80km to 125m)
+  // maxCells : most squares kept
+  public MeshAdaptive(long threshold, int maxLevel, int maxCells){
+    if(threshold < 1) throw new IllegalArgumentException("threshold must be at least 1: " + threshold);
+    if(maxLevel < 1 || maxLevel > 6) throw new IllegalArgumentException("maxLevel must be 1 to 6: " + maxLevel);
+    if(maxCells < 1) throw new IllegalArgumentException("maxCells must be at least 1: " + maxCells);
+    this.threshold = threshold;
+    this.maxLevel = maxLevel;
+    this.maxCells = maxCells;
+    allocate(16);
+  }
+
+  private void allocate(int capacity){
+    keys = new long[capacity];
+    counts = new long[capacity];
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  private int slot(long meshcode){
+    int mask = keys.length - 1;
+    int i = (int)((meshcode * 0x9E3779B97F4A7C15L) >>> shift);
+    while(keys[i] != 0 && keys[i] != meshcode) i = (i + 1) & mask;
+    return(i);
+  }
+
+  private int insert(long meshcode){
+    if(size >= LOAD * keys.length){
+      long[] k = keys, c = counts;
+      allocate(2 * k.length);
+      for(int j = 0; j < k.length; j++){
+        if(k[j] == 0) continue;
+        int i = slot(k[j]);
+        keys[i] = k[j];
+        counts[i] = c[j];
+      }
+    }
+    int i = slot(meshcode);
+    keys[i] = meshcode;
+    size++;
+    return(i);
+  }
+
+  // counts the point (latitude, longitude); false (and the point is not counted) if it is not
+  // within latitude [-90, 90] and longitude [-180, 180], or if the table is full and the 80km
+  // square of the point is not in it
+  public boolean add(double latitude, double longitude){
+    if(!(Math.abs(latitude) <= 90.0 && Math.abs(longitude) <= 180.0)) return(false);
+    wm.cal_meshcode_all(latitude, longitude, codes, 0);
+    int i = slot(codes[0]);
+    if(keys[i] == 0){
+      if(size >= maxCells){
+        dropped++;
+        return(false);
+      }
+      i = insert(codes[0]);
+    }
+    for(int level = 1; ; level++){
+      if((counts[i] & SPLIT) != 0){
+        int j = slot(codes[level]);
+        if(keys[j] != 0 || size < maxCells){
+          if(keys[j] == 0) j = insert(codes[level]);
+          i = j;
+          continue;
+        }
+      }
+      counts[i]++;
+      if(counts[i] == threshold && level < maxLevel && size < maxCells) counts[i] |= SPLIT;
+      break;
+    }
+    total++;
+    return(true);
+  }
+
+  // counts the points (latitude[off+i], longitude[off+i]) for i = 0 to len-1; returns the number counted
+  public int add(double[] latitude, double[] longitude, int off, int len){
+    Objects.checkFromIndexSize(off, len, latitude.length);
+    Objects.checkFromIndexSize(off, len, longitude.length);
+    int n = 0;
+    for(int i = 0; i < len; i++){
+      if(add(latitude[off+i], longitude[off+i])) n++;
+    }
+    return(n);
+  }
+
+  // number of points counted
+  public long total(){
+    return(total);
+  }
+
+  // number of points within range which were not counted because the table was full
+  public long dropped(){
+    return(dropped);
+  }
+
+  // number of squares kept, split ones included
+  public int size(){
+    return(size);
+  }
+
+  public interface Visitor {
+    void accept(long meshcode, double count);
+  }
+
+  // passes the unsplit squares with points (and split squares none of whose children got a point)
+  // with their estimated counts to visitor, coarse levels first
+  public void forEach(Visitor visitor){
+    // slots of the squares of each level
+    int[][] byLevel = new int[7][];
+    int[] n = new int[7];
+    for(int level = 1; level <= 6; level++) byLevel[level] = new int[16];
+    for(int j = 0; j < keys.length; j++){
+      if(keys[j] == 0) continue;
+      int level = level(keys[j]);
+      if(n[level] == byLevel[level].length) byLevel[level] = Arrays.copyOf(byLevel[level], 2*n[level]);
+      byLevel[level][n[level]++] = j;
+    }
+    // points which reached each square (counted in it or in its descendants), finest level first
+    long[] reached = new long[keys.length];
+    for(int j = 0; j < keys.length; j++) reached[j] = counts[j] & ~SPLIT;
+    for(int level = 6; level >= 2; level--){
+      for(int k = 0; k < n[level]; k++){
+        int j = byLevel[level][k];
+        reached[slot(parent(keys[j], level))] += reached[j];
+      }
+    }
+    // estimate of each square, coarsest level first : a split square passes its estimate on to its
+    // children in proportion to the points which reached them, which spreads the points it counted
+    // itself before it was split
+    double[] estimate = new double[keys.length];
+    for(int level = 1; level <= 6; level++){
+      for(int k = 0; k < n[level]; k++){
+        int j = byLevel[level][k];
+        if(level == 1){
+          estimate[j] = reached[j];
+        }else{
+          int p = slot(parent(keys[j], level));
+          estimate[j] = reached[j] * (estimate[p] / (reached[p] - (counts[p] & ~SPLIT)));
+        }
+        if((counts[j] & SPLIT) == 0 || reached[j] == (counts[j] & ~SPLIT)) visitor.accept(keys[j], estimate[j]);
+      }
+    }
+  }
+
+  private static long parent(long meshcode, int level){
+    return(meshcode / Worldmesh.POW10[Worldmesh.NDIGITS[level]-Worldmesh.NDIGITS[Worldmesh.parent_level(level)]]);
+  }
+
+  // level (1 to 6) of a code of the table
+  private static int level(long meshcode){
+    return(Worldmesh.LEVEL_OF_DIGITS[Worldmesh.ndigits(meshcode)]);
+  }
+}
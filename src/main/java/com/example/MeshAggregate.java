@@ -0,0 +1,283 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+
+// Count, sum, minimum and maximum of values per grid square code.
+//
+// The codes are kept in an open addressing hash table (linear probing, power of two capacity,
+// at most 3/4 full) with the statistics in parallel primitive arrays, so neither keys nor values
+// are boxed and the table takes 40 bytes per slot: about 53 to 107 bytes per code. 0 marks an
+// empty slot, which is never a grid square code.
+//
+// Partial tables filled by separate threads are combined with merge, and a table of fine codes is
+// rolled up to a coarser level with rollup, which takes the leading digits of every code
+// (Worldmesh.meshcode_parent) instead of encoding the points again.
+final class MeshAggregate {
+  private static final float LOAD = 0.75f;
+  private static final int MAX_CAPACITY = 1 << 30;
+  // most codes a table holds
+  private static final int MAX_SIZE = (int)(LOAD * MAX_CAPACITY);
+
+  private long[] keys;
+  private long[] count;
+  private double[] sum;
+  private double[] min;
+  private double[] max;
+  private int size;
+  private int shift;   // 64 - log2(capacity)
+
+  public MeshAggregate(){
+    this(16);
+  }
+
+  // a table holding expected codes without growing
+  public MeshAggregate(int expected){
+    if(expected < 0) throw new IllegalArgumentException("expected must not be negative: " + expected);
+    if(expected > MAX_SIZE) throw new IllegalArgumentException("expected must be at most " + MAX_SIZE + ": " + expected);
+    int capacity = Integer.highestOneBit(Math.max(4, (int)Math.ceil(expected / (double)LOAD)) * 2 - 1);
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity){
+    keys = new long[capacity];
+    count = new long[capacity];
+    sum = new double[capacity];
+    min = new double[capacity];
+    max = new double[capacity];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  // slot of meshcode, or the empty slot where it is to be inserted
+  private int slot(long meshcode){
+    int mask = keys.length - 1;
+    int i = (int)((meshcode * 0x9E3779B97F4A7C15L) >>> shift);
+    while(keys[i] != 0 && keys[i] != meshcode) i = (i + 1) & mask;
+    return(i);
+  }
+
+  private int insert(long meshcode){
+    if(meshcode <= 0) throw new IllegalArgumentException("not a grid square code: " + meshcode);
+    int i = slot(meshcode);
+    if(keys[i] == 0){
+      if(size >= LOAD * keys.length){
+        grow();
+        i = slot(meshcode);
+      }
+      keys[i] = meshcode;
+      size++;
+    }
+    return(i);
+  }
+
+  private void grow(){
+    if(keys.length == MAX_CAPACITY) throw new IllegalStateException("a table holds at most " + MAX_SIZE + " codes");
+    long[] k = keys, c = count;
+    double[] s = sum, lo = min, hi = max;
+    allocate(2 * k.length);
+    for(int j = 0; j < k.length; j++){
+      if(k[j] == 0) continue;
+      int i = slot(k[j]);
+      keys[i] = k[j];
+      count[i] = c[j];
+      sum[i] = s[j];
+      min[i] = lo[j];
+      max[i] = hi[j];
+    }
+  }
+
+  // counts one point in meshcode without a value (sum, min and max are left as they are)
+  public void add(long meshcode){
+    int i = insert(meshcode);
+    count[i]++;
+  }
+
+  // counts one point with value in meshcode
+  public void add(long meshcode, double value){
+    int i = insert(meshcode);
+    count[i]++;
+    sum[i] += value;
+    if(value < min[i]) min[i] = value;
+    if(value > max[i]) max[i] = value;
+  }
+
+  // adds meshcode[off+i] with value[off+i] (or without a value if value is null) for i = 0 to len-1
+  public void add(long[] meshcode, double[] value, int off, int len){
+    Objects.checkFromIndexSize(off, len, meshcode.length);
+    if(value == null){
+      for(int i = 0; i < len; i++) add(meshcode[off+i]);
+    }else{
+      Objects.checkFromIndexSize(off, len, value.length);
+      for(int i = 0; i < len; i++) add(meshcode[off+i], value[off+i]);
+    }
+  }
+
+  // adds the statistics of a whole group of points to meshcode
+  private void add(long meshcode, long n, double s, double lo, double hi){
+    int i = insert(meshcode);
+    count[i] += n;
+    sum[i] += s;
+    if(lo < min[i]) min[i] = lo;
+    if(hi > max[i]) max[i] = hi;
+  }
+
+  // adds every code of other (e.g. a partial table of another thread) to this table
+  public void merge(MeshAggregate other){
+    for(int j = 0; j < other.keys.length; j++){
+      if(other.keys[j] != 0) add(other.keys[j], other.count[j], other.sum[j], other.min[j], other.max[j]);
+    }
+  }
+
+  // a new table of the codes of level (1 to 6, 7 : extended 100m) containing the codes of this
+  // table, e.g. 250m codes rolled up to 500m, 1km, 10km or 80km codes. Every code must be of level
+  // or of a finer level lying in it (an extended 100m code lies in a 500m code), otherwise
+  // IllegalArgumentException is thrown.
+  public MeshAggregate rollup(int level, boolean extension){
+    Worldmesh wm = new Worldmesh();
+    MeshAggregate res = new MeshAggregate();
+    for(int j = 0; j < keys.length; j++){
+      if(keys[j] == 0) continue;
+      long parent = wm.meshcode_parent(keys[j], extension, level);
+      if(parent == 0) throw new IllegalArgumentException(keys[j] + " does not lie in a grid square of level " + level);
+      res.add(parent, count[j], sum[j], min[j], max[j]);
+    }
+    return(res);
+  }
+
+  // number of codes in the table
+  public int size(){
+    return(size);
+  }
+
+  // number of points counted in meshcode, 0 if there are none
+  public long count(long meshcode){
+    int i = find(meshcode);
+    return(i < 0 ? 0 : count[i]);
+  }
+
+  // sum of the values added to meshcode, 0 if there are none
+  public double sum(long meshcode){
+    int i = find(meshcode);
+    return(i < 0 ? 0.0 : sum[i]);
+  }
+
+  // smallest and largest value added to meshcode, NaN if no value has been added
+  public double min(long meshcode){
+    int i = find(meshcode);
+    return(i < 0 || min[i] > max[i] ? Double.NaN : min[i]);
+  }
+
+  public double max(long meshcode){
+    int i = find(meshcode);
+    return(i < 0 || min[i] > max[i] ? Double.NaN : max[i]);
+  }
+
+  private int find(long meshcode){
+    if(meshcode <= 0) return(-1);
+    int i = slot(meshcode);
+    return(keys[i] == 0 ? -1 : i);
+  }
+
+  // all codes of the table in increasing order
+  public long[] meshcodes(){
+    long[] res = new long[size];
+    int n = 0;
+    for(long k : keys){
+      if(k != 0) res[n++] = k;
+    }
+    Arrays.sort(res);
+    return(res);
+  }
+
+  public interface Visitor {
+    // min and max are NaN if no value has been added to meshcode
+    void accept(long meshcode, long count, double sum, double min, double max);
+  }
+
+  // passes every code with its statistics to visitor, in no particular order
+  public void forEach(Visitor visitor){
+    for(int j = 0; j < keys.length; j++){
+      if(keys[j] == 0) continue;
+      boolean none = min[j] > max[j];
+      visitor.accept(keys[j], count[j], sum[j], none ? Double.NaN : min[j], none ? Double.NaN : max[j]);
+    }
+  }
+
+  // aggregates the points (latitude[off+i], longitude[off+i]) with value[off+i] (or without values
+  // if value is null) for i = 0 to len-1 into the grid squares of level (1 to 6, 7 : extended 100m).
+  // Large ranges are split into ForkJoin tasks as in Worldmesh.cal_meshcode_batch; every worker
+  // thread fills one partial table of its own (kept in a map of this call only), and the partial
+  // tables are merged at the end.
+  public static MeshAggregate aggregate(int level, double[] latitude, double[] longitude, double[] value, int off, int len){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    Objects.checkFromIndexSize(off, len, latitude.length);
+    Objects.checkFromIndexSize(off, len, longitude.length);
+    if(value != null) Objects.checkFromIndexSize(off, len, value.length);
+    if(len < Worldmesh.BATCH_THRESHOLD){
+      MeshAggregate res = new MeshAggregate();
+      res.add_points(level, latitude, longitude, value, off, len);
+      return(res);
+    }
+    ConcurrentHashMap<Thread, MeshAggregate> partials = new ConcurrentHashMap<>();
+    new AggregateTask(level, latitude, longitude, value, off, len, partials).invoke();
+    MeshAggregate res = null;
+    for(MeshAggregate t : partials.values()){
+      if(res == null || t.size() > res.size()) res = t;
+    }
+    for(MeshAggregate t : partials.values()){
+      if(t != res) res.merge(t);
+    }
+    return(res);
+  }
+
+  private void add_points(int level, double[] latitude, double[] longitude, double[] value, int off, int len){
+    Worldmesh wm = new Worldmesh();
+    long[] codes = new long[Math.min(len, 1024)];
+    for(int i = 0; i < len; i += codes.length){
+      int n = Math.min(codes.length, len - i);
+      wm.cal_meshcode_batch(level, latitude, longitude, off+i, n, codes, 0);
+      if(value == null){
+        for(int k = 0; k < n; k++) add(codes[k]);
+      }else{
+        for(int k = 0; k < n; k++) add(codes[k], value[off+i+k]);
+      }
+    }
+  }
+
+  private static final class AggregateTask extends RecursiveAction {
+    private final int level;
+    private final double[] latitude;
+    private final double[] longitude;
+    private final double[] value;
+    private final int off;
+    private final int len;
+    // the partial table of each worker thread of the call; a thread runs one leaf at a time
+    private final ConcurrentHashMap<Thread, MeshAggregate> partials;
+
+    AggregateTask(int level, double[] latitude, double[] longitude, double[] value, int off, int len,
+                  ConcurrentHashMap<Thread, MeshAggregate> partials){
+      this.level = level;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.value = value;
+      this.off = off;
+      this.len = len;
+      this.partials = partials;
+    }
+
+    @Override
+    protected void compute(){
+      if(len <= Worldmesh.BATCH_THRESHOLD){
+        partials.computeIfAbsent(Thread.currentThread(), t -> new MeshAggregate()).add_points(level, latitude, longitude, value, off, len);
+        return;
+      }
+      int half = len >>> 1;
+      invokeAll(new AggregateTask(level, latitude, longitude, value, off, half, partials),
+                new AggregateTask(level, latitude, longitude, value, off+half, len-half, partials));
+    }
+  }
+}
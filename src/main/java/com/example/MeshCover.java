@@ -0,0 +1,326 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+// Grid square codes of one level covering a region, streamed without building the set.
+//
+// The region is walked in the integer cell space of Worldmesh (global rows northwards from the
+// south pole, global columns eastwards from the 180th meridian), one 80km square at a time, and
+// every code is made from its row and column with Worldmesh.cell. The 80km squares are visited
+// row by row from south to north, each row from west to east, and every code is emitted once.
+//
+// A box is a range of rows and columns, so within an 80km square its codes are emitted row by row.
+// A polygon is first tested on 80km and then on 10km squares: a square which no edge meets is
+// either outside (skipped) or inside (emitted whole, row by row); only the 10km squares crossed by
+// an edge are scanned row by row, each row marking the columns its edges pass through and the
+// columns between crossings of the middle of the row. A code is emitted if its square meets the
+// polygon, edges and corners included, so thin slivers are never missed.
+//
+// The stream versions produce the same codes lazily, 80km square by 80km square (buffering at most
+// one 10km square of a polygon), so a parallel stream splits the work over the 80km squares.
+final class MeshCover {
+  private final int level;
+  private final int cols;
+  private final int n;      // rows (and columns) of level in an 80km square
+  private final int ty0;    // range of 80km rows and columns to visit; columns are not
+  private final int ty1;    // taken modulo 360 so that a box may cross the 180th meridian
+  private final int tx0;
+  private final int tx1;
+  // box : range of global rows and columns of level
+  private final int y0;
+  private final int y1;
+  private final long x0;
+  private final long x1;
+  // polygon : edge k goes from (lat[k], lon[k]) to (lat[k+1], lon[k+1]), the last vertex repeating the first
+  private final double[] lat;
+  private final double[] lon;
+
+  private MeshCover(int level, int y0, int y1, long x0, long x1, double[] lat, double[] lon){
+    this.level = level;
+    this.cols = Worldmesh.LEVEL_COLS[level];
+    this.n = Worldmesh.LEVEL_ROWS[level] / Worldmesh.LEVEL_ROWS[1];
+    this.y0 = y0;
+    this.y1 = y1;
+    this.x0 = x0;
+    this.x1 = x1;
+    this.ty0 = Math.floorDiv(y0, n);
+    this.ty1 = Math.floorDiv(y1, n);
+    this.tx0 = (int)Math.floorDiv(x0, n);
+    this.tx1 = (int)Math.floorDiv(x1, n);
+    this.lat = lat;
+    this.lon = lon;
+  }
+
+  // squares of level meeting latitude lat0 to lat1 and longitude long0 to long1; the box crosses
+  // the 180th meridian if long0 > long1
+  static MeshCover box(int level, double lat0, double long0, double lat1, double long1){
+    long[] c = box_cells(level, lat0, long0, lat1, long1);
+    return(new MeshCover(level, (int)c[0], (int)c[1], c[2], c[3], null, null));
+  }
+
+  // global rows y0 to y1 and columns x0 to x1 (x1 passes LEVEL_COLS-1 when the box crosses the
+  // 180th meridian) of the squares of level meeting the box, as {y0, y1, x0, x1}
+  static long[] box_cells(int level, double lat0, double long0, double lat1, double long1){
+    check_level(level);
+    if(!(lat0 <= lat1)) throw new IllegalArgumentException("lat0 must not exceed lat1: " + lat0 + ", " + lat1);
+    if(Double.isNaN(long0) || Double.isNaN(long1)) throw new IllegalArgumentException("longitude is NaN");
+    int rows = Worldmesh.LEVEL_ROWS[level];
+    int cols = Worldmesh.LEVEL_COLS[level];
+    long x0 = col(long0, cols);
+    long x1 = col(long1, cols);
+    if(long0 > long1) x1 += 2L*cols;
+    x1 = Math.min(x1, x0 + 2L*cols - 1);
+    return(new long[]{row(lat0, rows), row(lat1, rows), x0, x1});
+  }
+
+  // squares of level meeting the polygon with the vertices (latitude[off+i], longitude[off+i])
+  // (i = 0 to len-1), joined by straight lines in latitude and longitude and closed from the last
+  // vertex back to the first; a self-crossing polygon follows the even-odd rule, and holes and
+  // crossings of the 180th meridian are not supported
+  static MeshCover polygon(int level, double[] latitude, double[] longitude, int off, int len){
+    check_level(level);
+    if(len < 3) throw new IllegalArgumentException("a polygon needs at least 3 vertices: " + len);
+    Objects.checkFromIndexSize(off, len, latitude.length);
+    Objects.checkFromIndexSize(off, len, longitude.length);
+    double[] lat = new double[len+1];
+    double[] lon = new double[len+1];
+    double lat0 = 90.0, lat1 = -90.0, long0 = 180.0, long1 = -180.0;
+    for(int i = 0; i < len; i++){
+      double la = latitude[off+i], lo = longitude[off+i];
+      if(!(Math.abs(la) <= 90.0 && Math.abs(lo) <= 180.0)){
+        throw new IllegalArgumentException("vertex " + i + " out of range: " + la + ", " + lo);
+      }
+      lat[i] = la;
+      lon[i] = lo;
+      lat0 = Math.min(lat0, la);
+      lat1 = Math.max(lat1, la);
+      long0 = Math.min(long0, lo);
+      long1 = Math.max(long1, lo);
+    }
+    lat[len] = lat[0];
+    lon[len] = lon[0];
+    int rows = Worldmesh.LEVEL_ROWS[level];
+    int cols = Worldmesh.LEVEL_COLS[level];
+    return(new MeshCover(level, row(lat0, rows), row(lat1, rows), col(long0, cols), col(long1, cols), lat, lon));
+  }
+
+  private static void check_level(int level){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+  }
+
+  // global row of the square of a level with rows rows per hemisphere containing latitude (clamped to the poles)
+  private static int row(double latitude, int rows){
+    return((int)Math.max(-rows, Math.min(rows-1, Math.floor(latitude * rows / 90.0))));
+  }
+
+  private static long col(double longitude, int cols){
+    return((long)Math.max(-cols, Math.min(cols-1, Math.floor(longitude * cols / 180.0))));
+  }
+
+  // southern edge of global row y and western edge of global column x of a level with rows rows and cols columns
+  private static double lat_of(long y, int rows){
+    return(y * 90.0 / rows);
+  }
+
+  private static double long_of(long x, int cols){
+    return(x * 180.0 / cols);
+  }
+
+  void forEach(LongConsumer sink){
+    Objects.requireNonNull(sink);
+    for(int ty = ty0; ty <= ty1; ty++){
+      for(int tx = tx0; tx <= tx1; tx++){
+        if(lat == null) box_tile(ty, tx, sink);
+        else polygon_tile(ty, tx, sink);
+      }
+    }
+  }
+
+  LongStream stream(){
+    long width = tx1 - tx0 + 1L;
+    return(LongStream.range(0, (ty1 - ty0 + 1L) * width).flatMap(t -> {
+      int ty = ty0 + (int)(t / width);
+      int tx = tx0 + (int)(t % width);
+      return(lat == null ? box_tile_stream(ty, tx) : polygon_tile_stream(ty, tx));
+    }));
+  }
+
+  // squares of rows ya to yb and columns xa to xb, row by row
+  private void block(int ya, int yb, long xa, long xb, LongConsumer sink){
+    for(int y = ya; y <= yb; y++){
+      for(long x = xa; x <= xb; x++) sink.accept(Worldmesh.cell(level, y, x, cols));
+    }
+  }
+
+  private LongStream block_stream(int ya, int yb, long xa, long xb){
+    return(LongStream.rangeClosed(ya, yb).flatMap(y -> LongStream.rangeClosed(xa, xb).map(x -> Worldmesh.cell(level, (int)y, x, cols))));
+  }
+
+  private void box_tile(int ty, int tx, LongConsumer sink){
+    block(Math.max(y0, ty*n), Math.min(y1, ty*n+n-1), Math.max(x0, (long)tx*n), Math.min(x1, (long)tx*n+n-1), sink);
+  }
+
+  private LongStream box_tile_stream(int ty, int tx){
+    return(block_stream(Math.max(y0, ty*n), Math.min(y1, ty*n+n-1), Math.max(x0, (long)tx*n), Math.min(x1, (long)tx*n+n-1)));
+  }
+
+  private static final int OUTSIDE = 0;
+  private static final int INSIDE = 1;
+  private static final int PARTIAL = 2;
+
+  // Edges of the polygon near a square : band holds the edges reaching the latitudes of the square
+  // somewhere west of its eastern edge (enough to find which points of the square lie inside);
+  // band[0] to band[meets-1] are those meeting the square itself.
+  private static final class Edges {
+    final int[] band;
+    final int meets;
+
+    Edges(int[] band, int meets){
+      this.band = band;
+      this.meets = meets;
+    }
+  }
+
+  // edges of parent (or of the whole polygon if parent is null) near the square of global row y and
+  // column x of a level with rows rows and cols columns, and whether the square is outside, inside
+  // or crossed by an edge
+  private Edges edges(Edges parent, int y, int x, int rows, int cols){
+    double la0 = lat_of(y, rows), la1 = lat_of(y+1L, rows);
+    double lo0 = long_of(x, cols), lo1 = long_of(x+1L, cols);
+    int[] from = parent == null ? null : parent.band;
+    int total = from == null ? lat.length-1 : from.length;
+    int[] band = new int[total];
+    int nb = 0, nm = 0;
+    for(int i = 0; i < total; i++){
+      int k = from == null ? i : from[i];
+      if(Math.max(lat[k], lat[k+1]) < la0 || Math.min(lat[k], lat[k+1]) > la1 || Math.min(lon[k], lon[k+1]) > lo1) continue;
+      if(meets(k, la0, lo0, la1, lo1)){
+        // keep the edges meeting the square at the front
+        band[nb] = band[nm];
+        band[nm++] = k;
+      }else{
+        band[nb] = k;
+      }
+      nb++;
+    }
+    return(new Edges(Arrays.copyOf(band, nb), nm));
+  }
+
+  private int state(Edges e, int y, int x, int rows, int cols){
+    if(e.meets > 0) return(PARTIAL);
+    double py = (lat_of(y, rows) + lat_of(y+1L, rows)) * 0.5;
+    double px = (long_of(x, cols) + long_of(x+1L, cols)) * 0.5;
+    return(crossings_west(e.band, py, px) % 2 == 1 ? INSIDE : OUTSIDE);
+  }
+
+  // true if edge k meets the rectangle : their bounding boxes overlap and the corners of the
+  // rectangle do not all lie strictly on one side of the line of the edge
+  private boolean meets(int k, double la0, double lo0, double la1, double lo1){
+    double ay = lat[k], ax = lon[k], by = lat[k+1], bx = lon[k+1];
+    if(Math.max(ax, bx) < lo0 || Math.min(ax, bx) > lo1) return(false);
+    double dy = by - ay, dx = bx - ax;
+    double c00 = dx*(la0-ay) - dy*(lo0-ax);
+    double c01 = dx*(la0-ay) - dy*(lo1-ax);
+    double c10 = dx*(la1-ay) - dy*(lo0-ax);
+    double c11 = dx*(la1-ay) - dy*(lo1-ax);
+    return(!(c00 > 0 && c01 > 0 && c10 > 0 && c11 > 0) && !(c00 < 0 && c01 < 0 && c10 < 0 && c11 < 0));
+  }
+
+  // number of edges crossing latitude py west of longitude px (each vertex counted on its northern side)
+  private int crossings_west(int[] band, double py, double px){
+    int c = 0;
+    for(int k : band){
+      if((lat[k] <= py) != (lat[k+1] <= py) && crossing(k, py) < px) c++;
+    }
+    return(c);
+  }
+
+  private double crossing(int k, double py){
+    return(lon[k] + (py - lat[k]) * (lon[k+1] - lon[k]) / (lat[k+1] - lat[k]));
+  }
+
+  private void polygon_tile(int ty, int tx, LongConsumer sink){
+    Edges e = edges(null, ty, tx, Worldmesh.LEVEL_ROWS[1], Worldmesh.LEVEL_COLS[1]);
+    int s = state(e, ty, tx, Worldmesh.LEVEL_ROWS[1], Worldmesh.LEVEL_COLS[1]);
+    if(s == OUTSIDE) return;
+    if(s == INSIDE || level == 1){
+      block(ty*n, ty*n+n-1, (long)tx*n, (long)tx*n+n-1, sink);
+      return;
+    }
+    for(int k = 0; k < 64; k++) polygon_10km(e, ty*8 + k/8, tx*8 + k%8, sink);
+  }
+
+  private LongStream polygon_tile_stream(int ty, int tx){
+    Edges e = edges(null, ty, tx, Worldmesh.LEVEL_ROWS[1], Worldmesh.LEVEL_COLS[1]);
+    int s = state(e, ty, tx, Worldmesh.LEVEL_ROWS[1], Worldmesh.LEVEL_COLS[1]);
+    if(s == OUTSIDE) return(LongStream.empty());
+    if(s == INSIDE || level == 1) return(block_stream(ty*n, ty*n+n-1, (long)tx*n, (long)tx*n+n-1));
+    return(LongStream.range(0, 64).flatMap(k -> {
+      LongStream.Builder b = LongStream.builder();
+      polygon_10km(e, ty*8 + (int)k/8, tx*8 + (int)k%8, b);
+      return(b.build());
+    }));
+  }
+
+  // the squares of level in the 10km square of global row y and column x which meet the polygon
+  private void polygon_10km(Edges parent, int y, int x, LongConsumer sink){
+    int rows2 = Worldmesh.LEVEL_ROWS[2];
+    int cols2 = Worldmesh.LEVEL_COLS[2];
+    Edges e = edges(parent, y, x, rows2, cols2);
+    int s = state(e, y, x, rows2, cols2);
+    if(s == OUTSIDE) return;
+    int m = n / 8;
+    if(s == INSIDE || level == 2){
+      block(y*m, y*m+m-1, (long)x*m, (long)x*m+m-1, sink);
+      return;
+    }
+    int rows = Worldmesh.LEVEL_ROWS[level];
+    double lo0 = long_of(x, cols2);
+    double lo1 = long_of(x+1L, cols2);
+    long xa = (long)x*m;
+    boolean[] mark = new boolean[m];
+    double[] cross = new double[e.band.length];
+    for(int yy = y*m; yy < y*m+m; yy++){
+      double b0 = lat_of(yy, rows), b1 = lat_of(yy+1L, rows);
+      Arrays.fill(mark, false);
+      // columns the edges pass through within the row
+      for(int i = 0; i < e.meets; i++){
+        int k = e.band[i];
+        double ay = lat[k], by = lat[k+1];
+        if(Math.max(ay, by) < b0 || Math.min(ay, by) > b1) continue;
+        double wa, wb;
+        if(ay == by){
+          wa = lon[k];
+          wb = lon[k+1];
+        }else{
+          wa = crossing(k, Math.max(b0, Math.min(ay, by)));
+          wb = crossing(k, Math.min(b1, Math.max(ay, by)));
+        }
+        mark_span(mark, Math.min(wa, wb), Math.max(wa, wb), lo0, lo1, xa);
+      }
+      // columns between crossings of the middle of the row; edges east of the square are not in the
+      // band, so an odd number of crossings means the last interval leaves the square eastwards
+      double py = (b0 + b1) * 0.5;
+      int nc = 0;
+      for(int k : e.band){
+        if((lat[k] <= py) != (lat[k+1] <= py)) cross[nc++] = crossing(k, py);
+      }
+      Arrays.sort(cross, 0, nc);
+      for(int i = 0; i < nc; i += 2) mark_span(mark, cross[i], i+1 < nc ? cross[i+1] : lo1, lo0, lo1, xa);
+      for(int i = 0; i < m; i++){
+        if(mark[i]) sink.accept(Worldmesh.cell(level, yy, xa+i, cols));
+      }
+    }
+  }
+
+  // marks the columns (counted from global column xa) of the 10km square lo0 to lo1 which meet longitude w0 to w1
+  private void mark_span(boolean[] mark, double w0, double w1, double lo0, double lo1, long xa){
+    if(w1 < lo0 || w0 > lo1) return;
+    int a = (int)Math.max(0, col(Math.max(w0, lo0), cols) - xa);
+    int b = (int)Math.min(mark.length-1, col(Math.min(w1, lo1), cols) - xa);
+    for(int i = a; i <= b; i++) mark[i] = true;
+  }
+}
@@ -0,0 +1,168 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// 64-bit keys of grid squares which sort squares close on the ground close together.
+//
+// A key holds the level in bits 56 to 58 and the Morton (Z-order) interleaving of the global row
+// y + LEVEL_ROWS (odd bits) and the global column x + LEVEL_COLS (even bits) in bits 0 to 37, so the
+// squares of one level sort by level first and then along the Z curve over the whole globe: squares
+// on either side of an 80km or 10km boundary or the equator get near keys, and every aligned block of
+// 2^k by 2^k squares is one range of consecutive keys. The decimal code sorts by 80km square first,
+// which puts the squares on either side of such a boundary far apart.
+//
+// A code is split into its row and column once with divisions by constants
+// (Worldmesh.meshcode_cell), and the row and column are interleaved with a few shifts and masks
+// (and split again on the way back); neither direction allocates. A key is never 0, which stands for "no key" as 0 stands for "no code".
+final class MeshKey {
+  private static final int BITS = 19;             // 2*LEVEL_COLS[7] = 288000 < 2^19
+  private static final int LEVEL_SHIFT = 56;
+
+  private MeshKey(){
+  }
+
+  // key of meshcode, 0 if it is not a grid square code
+  static long key(long meshcode, boolean extension){
+    long c = Worldmesh.meshcode_cell(meshcode, extension);
+    if(c == 0) return(0);
+    return((c >>> 48) << LEVEL_SHIFT | spread((c >>> 24) & 0xFFFFFF) << 1 | spread(c & 0xFFFFFF));
+  }
+
+  // key of the grid square of level (1 to 6, 7 : extended 100m) at global row y and global column x
+  static long key(int level, int y, int x){
+    return((long)level << LEVEL_SHIFT | spread(y + Worldmesh.LEVEL_ROWS[level]) << 1 | spread(x + Worldmesh.LEVEL_COLS[level]));
+  }
+
+  // grid square code of key, 0 if key is not the key of a grid square
+  static long meshcode(long key){
+    int level = (int)(key >>> LEVEL_SHIFT);
+    if(level < 1 || level > 7 || (key & ((1L << LEVEL_SHIFT) - (1L << 2*BITS))) != 0) return(0);
+    int rows = Worldmesh.LEVEL_ROWS[level];
+    int cols = Worldmesh.LEVEL_COLS[level];
+    int y = compact(key >>> 1);
+    int x = compact(key);
+    if(y >= 2*rows || x >= 2*cols) return(0);
+    return(Worldmesh.cell(level, y - rows, x - cols, cols));
+  }
+
+  // the low 32 bits of v moved to the even bits
+  private static long spread(long v){
+    v &= 0xFFFFFFFFL;
+    v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+    v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+    v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+    v = (v | v << 2) & 0x3333333333333333L;
+    v = (v | v << 1) & 0x5555555555555555L;
+    return(v);
+  }
+
+  // the even bits of v, the inverse of spread (the level bits are dropped)
+  private static int compact(long v){
+    v &= 0x5555555555555555L >>> (64 - 2*BITS);
+    v = (v | v >>> 1) & 0x3333333333333333L;
+    v = (v | v >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+    v = (v | v >>> 4) & 0x00FF00FF00FF00FFL;
+    v = (v | v >>> 8) & 0x0000FFFF0000FFFFL;
+    v = (v | v >>> 16) & 0x00000000FFFFFFFFL;
+    return((int)v);
+  }
+
+  // Splits the keys of the squares of level meeting a box (as MeshCover.box) into ranges of
+  // consecutive keys, first and last key of each into out[off+2i] and out[off+2i+1] in increasing
+  // order; returns the number of ranges (at most maxRanges). The Z curve is walked down from blocks
+  // of 2^19 by 2^19 squares; a block inside the box is one range, a block meeting its edge is split
+  // into its 4 quarters down to the block size at which the edge blocks are about 4*maxRanges,
+  // and those are taken whole. If more than maxRanges ranges are left the closest ones are joined,
+  // so the ranges hold every key of the box and, when the box needs more than maxRanges ranges,
+  // keys of squares near it as well.
+  static int ranges(int level, double lat0, double long0, double lat1, double long1, int maxRanges, long[] out, int off){
+    if(maxRanges < 1) throw new IllegalArgumentException("maxRanges must be at least 1: " + maxRanges);
+    Objects.checkFromIndexSize(off, 2*maxRanges, out.length);
+    long[] box = MeshCover.box_cells(level, lat0, long0, lat1, long1);
+    int rows = Worldmesh.LEVEL_ROWS[level];
+    int cols = Worldmesh.LEVEL_COLS[level];
+    // rectangles in key space : rows y0 to y1, columns x0 to x1 (two when the box crosses the 180th meridian)
+    int y0 = (int)box[0] + rows, y1 = (int)box[1] + rows;
+    long x0 = box[2] + cols, x1 = box[3] + cols;
+    int[] rect;
+    if(x1 < 2*cols || x1 - x0 + 1 >= 2*cols){
+      rect = new int[]{y0, y1, (int)x0, (int)Math.min(x1, 2*cols - 1)};
+    }else{
+      rect = new int[]{y0, y1, (int)x0, 2*cols - 1, y0, y1, 0, (int)(x1 - 2*cols)};
+    }
+    long edge = 0;
+    for(int r = 0; r < rect.length; r += 4) edge += 2L*(rect[r+1] - rect[r] + 1) + 2L*(rect[r+3] - rect[r+2] + 1);
+    int granule = 0;
+    while(granule < BITS && (edge >> granule) > 4L*maxRanges) granule++;
+    Ranges res = new Ranges();
+    walk(rect, 0, 0, BITS, granule, (long)level << LEVEL_SHIFT, res);
+    res.join(maxRanges);
+    System.arraycopy(res.ranges, 0, out, off, 2*res.n);
+    return(res.n);
+  }
+
+  // block of 2^size by 2^size squares with south-west corner (y, x) and first key base
+  private static void walk(int[] rect, int y, int x, int size, int granule, long base, Ranges res){
+    int last = (1 << size) - 1;
+    boolean inside = false, meets = false;
+    for(int r = 0; r < rect.length; r += 4){
+      if(y + last < rect[r] || y > rect[r+1] || x + last < rect[r+2] || x > rect[r+3]) continue;
+      meets = true;
+      inside |= y >= rect[r] && y + last <= rect[r+1] && x >= rect[r+2] && x + last <= rect[r+3];
+    }
+    if(!meets) return;
+    if(inside || size <= granule){
+      res.add(base, base + (1L << 2*size) - 1);
+      return;
+    }
+    int half = 1 << (size - 1);
+    long quarter = 1L << 2*(size - 1);
+    walk(rect, y, x, size - 1, granule, base, res);
+    walk(rect, y, x + half, size - 1, granule, base + quarter, res);
+    walk(rect, y + half, x, size - 1, granule, base + 2*quarter, res);
+    walk(rect, y + half, x + half, size - 1, granule, base + 3*quarter, res);
+  }
+
+  // ranges in increasing order, a range following the last one directly joined to it
+  private static final class Ranges {
+    long[] ranges = new long[32];
+    int n;
+
+    void add(long first, long last){
+      if(n > 0 && ranges[2*n-1] + 1 == first){
+        ranges[2*n-1] = last;
+        return;
+      }
+      if(2*n == ranges.length) ranges = Arrays.copyOf(ranges, 2*ranges.length);
+      ranges[2*n] = first;
+      ranges[2*n+1] = last;
+      n++;
+    }
+
+    // joins the ranges across the smallest gaps until at most max are left
+    void join(int max){
+      if(n <= max) return;
+      long[] gaps = new long[n-1];
+      for(int i = 0; i < n-1; i++) gaps[i] = ranges[2*i+2] - ranges[2*i+1];
+      long[] sorted = gaps.clone();
+      Arrays.sort(sorted);
+      long limit = sorted[n - max - 1];               // gaps below limit are joined,
+      int equal = n - max;                            // and as many gaps equal to it as needed
+      for(long g : sorted){
+        if(g < limit) equal--;
+      }
+      int k = 0;
+      for(int i = 0; i < n; i++){
+        if(i > 0 && (gaps[i-1] < limit || (gaps[i-1] == limit && equal-- > 0))){
+          ranges[2*k-1] = ranges[2*i+1];
+        }else{
+          ranges[2*k] = ranges[2*i];
+          ranges[2*k+1] = ranges[2*i+1];
+          k++;
+        }
+      }
+      n = k;
+    }
+  }
+}
@@ -0,0 +1,462 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+// Grid square levels as data. A level is its parent level (none for the 80km level) divided into
+// factor x factor squares, numbered within the parent square either with a latitude digit and a
+// longitude digit (DECIMAL, 0 to factor-1 each) or with one quadrant digit (QUADRANT, factor 2 :
+// 1 south-west, 2 south-east, 3 north-west, 4 north-east); the code of a square is the code of its
+// parent followed by these digits. Every level keeps the steps from the 80km level down to itself
+// as flat arrays, so that encoding, decoding and the integer row and column conversions are one
+// loop over the steps instead of a case per level.
+//
+// The levels 1 to 7 of Worldmesh are built here with the units of the original encoder (arc-minutes
+// and arc-seconds, switched at the same steps) and the grouping of the terms of the original
+// decoder, so their codes and corners are exactly those of the hand-written cases they replace.
+// Finer levels are made with subdivide; EX50 and EX10 are the 50m and 10m squares of the extended
+// 100m square (14 and 15 digits). They work with the encoder, the decoder and the cell
+// conversions of Worldmesh taking a MeshLevel; the other parts of the library know levels 1 to 7.
+final class MeshLevel {
+  static final int DECIMAL = 0;
+  static final int QUADRANT = 1;
+
+  final int level;           // 1 to 6 (80km to 125m), 7 (extended 100m), 0 for a level made by subdivide
+  final MeshLevel parent;    // null for the 80km level
+  final int factor;          // squares of this level along a side of a parent square (0 for 80km)
+  final int numbering;       // DECIMAL or QUADRANT
+  final int ndigits;
+  final int rows;            // latitude rows in each hemisphere
+  final int cols;            // longitude columns in each hemisphere
+  final int steps;           // steps below the 80km level
+
+  // step k (0 to steps-1) is the k'th division below the 80km level
+  private final int[] factors;
+  private final boolean[] quadrant;
+  // the steps from the last one up, 5 bits each : the factor, and 16 for a quadrant step
+  private final long program;
+  // encoder : the remainder left by the previous step times mul divided by div is the digit plus
+  // the new remainder over div (the 80km step takes degrees to arc-minutes of latitude, the 1km
+  // step arc-minutes to arc-seconds, as the original encoder did)
+  private final double[] latMul;
+  private final double[] latDiv;
+  private final double[] longMul;
+  private final double[] longDiv;
+  // decoder : the corner term of a step is (digit + corner*(1-x)) for latitude and (digit + corner*y)
+  // for longitude, x and y being the southern and western flags (corner[0] : 80km step)
+  private final int[] corner;
+  // the original decoder divided each term by 3 (latitude) and by every factor down to its step;
+  // the divisions by powers of two are exact, so a term is divided by the odd parts of the factors
+  // odd[0] to odd[oddEnd[k]-1] in the same order and then scaled by a power of two, which rounds
+  // the same way
+  private final double[] odd;
+  private final int[] oddEnd;
+  private final double[] latScale;
+  private final double[] longScale;
+  private final double dlat;
+  private final double dlong;
+  // the JIS decoders (500m to 125m) took the row of a quadrant digit with /, the extended 100m one
+  // with Math.floorDiv; they differ only for the invalid digit 0
+  private final boolean truncated;
+
+  // 80km level
+  private MeshLevel(){
+    this.level = 1;
+    this.parent = null;
+    this.factor = 0;
+    this.numbering = DECIMAL;
+    this.ndigits = 6;
+    this.rows = 135;
+    this.cols = 180;
+    this.steps = 0;
+    this.factors = new int[0];
+    this.quadrant = new boolean[0];
+    this.program = 0;
+    this.latMul = new double[0];
+    this.latDiv = new double[0];
+    this.longMul = new double[0];
+    this.longDiv = new double[0];
+    this.corner = new int[]{1};
+    this.odd = new double[0];
+    this.oddEnd = new int[0];
+    this.latScale = new double[0];
+    this.longScale = new double[0];
+    this.dlat = 2.0/3.0;
+    this.dlong = 1.0;
+    this.truncated = true;
+  }
+
+  private MeshLevel(int level, MeshLevel parent, int factor, int numbering,
+                    double latMul, double latDiv, double longMul, double longDiv, boolean truncated){
+    if(numbering == QUADRANT ? factor != 2 : factor < 2 || factor > 10){
+      throw new IllegalArgumentException("factor " + factor + " does not fit the numbering");
+    }
+    this.level = level;
+    this.parent = parent;
+    this.factor = factor;
+    this.numbering = numbering;
+    this.ndigits = parent.ndigits + (numbering == QUADRANT ? 1 : 2);
+    if(ndigits > 18) throw new IllegalArgumentException("a code of " + ndigits + " digits does not fit a long");
+    if((long)parent.cols * factor >= 1 << 30) throw new IllegalArgumentException("too many squares: " + factor);
+    this.rows = parent.rows * factor;
+    this.cols = parent.cols * factor;
+    int n = parent.steps;
+    this.steps = n + 1;
+    this.factors = append(parent.factors, factor);
+    this.quadrant = Arrays.copyOf(parent.quadrant, n+1);
+    this.quadrant[n] = numbering == QUADRANT;
+    this.program = parent.program << 5 | factor | (numbering == QUADRANT ? 16 : 0);
+    this.latMul = append(parent.latMul, latMul);
+    this.latDiv = append(parent.latDiv, latDiv);
+    this.longMul = append(parent.longMul, longMul);
+    this.longDiv = append(parent.longDiv, longDiv);
+    // a quadrant term moves back from the far edge of the parent square by one square, other
+    // terms take the far edge from the parent step (as the 500m to 125m and the 10km, 1km and
+    // extended 100m cases of the original decoder)
+    this.corner = append(parent.corner, numbering == QUADRANT ? 1 - factor : 1);
+    if(numbering != QUADRANT) this.corner[n] -= 1;
+    int o = factor, e = 1;
+    while(o % 2 == 0){
+      o /= 2;
+      e *= 2;
+    }
+    this.odd = o > 1 ? append(parent.odd, (double)o) : parent.odd;
+    this.oddEnd = append(parent.oddEnd, odd.length);
+    double ls = n == 0 ? 2.0 : parent.latScale[n-1];
+    double gs = n == 0 ? 1.0 : parent.longScale[n-1];
+    this.latScale = append(parent.latScale, ls / e);
+    this.longScale = append(parent.longScale, gs / e);
+    this.dlat = parent.dlat / factor;
+    this.dlong = parent.dlong / factor;
+    this.truncated = truncated;
+  }
+
+  private static int[] append(int[] a, int v){
+    int[] b = Arrays.copyOf(a, a.length+1);
+    b[a.length] = v;
+    return(b);
+  }
+
+  private static double[] append(double[] a, double v){
+    double[] b = Arrays.copyOf(a, a.length+1);
+    b[a.length] = v;
+    return(b);
+  }
+
+  static final MeshLevel KM80 = new MeshLevel();
+  static final MeshLevel KM10 = new MeshLevel(2, KM80, 8, DECIMAL, 1.0, 5.0, 60.0, 7.5, true);
+  static final MeshLevel KM1 = new MeshLevel(3, KM10, 10, DECIMAL, 60.0, 30.0, 60.0, 45.0, true);
+  static final MeshLevel M500 = new MeshLevel(4, KM1, 2, QUADRANT, 1.0, 15.0, 1.0, 22.5, true);
+  static final MeshLevel M250 = new MeshLevel(5, M500, 2, QUADRANT, 1.0, 7.5, 1.0, 11.25, true);
+  static final MeshLevel M125 = new MeshLevel(6, M250, 2, QUADRANT, 1.0, 3.75, 1.0, 5.625, true);
+  static final MeshLevel EX100 = new MeshLevel(7, M500, 5, DECIMAL, 1.0, 3.0, 1.0, 4.5, false);
+  static final MeshLevel EX50 = EX100.subdivide(2, QUADRANT);
+  static final MeshLevel EX10 = EX100.subdivide(10, DECIMAL);
+
+  // levels 1 to 7 of Worldmesh by number
+  static final MeshLevel[] LEVELS = {null, KM80, KM10, KM1, M500, M250, M125, EX100};
+
+  // level 1 to 6 by number of digits (13 digits with extension : EX100)
+  private static final MeshLevel[] JIS = new MeshLevel[20];
+  static {
+    for(int lv = 1; lv <= 6; lv++) JIS[LEVELS[lv].ndigits] = LEVELS[lv];
+  }
+
+  // level of a code of n digits (1 to 19), null for none
+  static MeshLevel of_digits(int n, boolean extension){
+    return(n == 13 && extension ? EX100 : JIS[n]);
+  }
+
+  // value of every level 1 to 7 by number (index 0 : 0)
+  static int[] table(ToIntFunction<MeshLevel> value){
+    int[] t = new int[LEVELS.length];
+    for(int lv = 1; lv < LEVELS.length; lv++) t[lv] = value.applyAsInt(LEVELS[lv]);
+    return(t);
+  }
+
+  // a finer level dividing the squares of this one into factor x factor squares (2 for QUADRANT,
+  // 2 to 10 for DECIMAL); its codes have 1 (QUADRANT) or 2 (DECIMAL) more digits
+  MeshLevel subdivide(int factor, int numbering){
+    if(steps == 0) throw new IllegalArgumentException("the 80km level has fixed steps below it");
+    double la = latDiv[steps-1], lo = longDiv[steps-1];
+    return(new MeshLevel(0, this, factor, numbering, factor, la, factor, lo, false));
+  }
+
+  // trailing digits of the j'th (0 to factor*factor-1) square of this level in its parent square, in increasing order
+  int child_suffix(int j){
+    return(numbering == QUADRANT ? j+1 : (j/factor)*10 + j%factor);
+  }
+
+  // the number (0 to factor*factor-1) of the square of this level with the trailing digits suffix
+  // in its parent square; the inverse of child_suffix
+  int child_index(int suffix){
+    return(numbering == QUADRANT ? suffix-1 : (suffix/10)*factor + suffix%10);
+  }
+
+  // true if the squares of this level lie in the squares of ancestor (or it is ancestor)
+  boolean lies_in(MeshLevel ancestor){
+    for(MeshLevel lv = this; lv != null; lv = lv.parent) if(lv == ancestor) return(true);
+    return(false);
+  }
+
+  // code of the square of this level containing a position, with the floating point steps of the
+  // original encoder
+  long encode(double latitude, double longitude){
+    long code = digits(latitude, longitude, null, null, null, 0);
+    if(code >= 0) return(code);
+    // a field does not fit its digits (a position out of range, or infinite) : the original
+    // encoder concatenated the fields as strings and cut the 80km to 250m codes from the 125m one
+    MeshLevel whole = level >= 1 && level <= 5 ? M125 : this;
+    StringBuilder sb = new StringBuilder();
+    whole.digits(latitude, longitude, sb, null, null, 0);
+    return(Long.parseLong(whole == this ? sb.toString() : sb.substring(0, ndigits)));
+  }
+
+  // the codes of levels 1 to 7 into out[off] to out[off+6] : the 125m and the extended 100m codes,
+  // and the coarser ones as their leading digits
+  static void encode_all(double latitude, double longitude, long[] out, int off){
+    long keep = out[off+EX100.level-1];
+    long c6 = M125.digits(latitude, longitude, null, EX100, out, off);
+    if((c6 | out[off+EX100.level-1]) < 0){
+      out[off+EX100.level-1] = keep;
+      for(int lv = 1; lv < LEVELS.length; lv++) out[off+lv-1] = LEVELS[lv].encode(latitude, longitude);
+      return;
+    }
+    for(MeshLevel lv = M125; lv != null; lv = lv.parent){
+      out[off+lv.level-1] = c6 / POW10[M125.ndigits-lv.ndigits];
+    }
+  }
+
+  private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L};
+
+  // code of a position down the steps of this level, -1 if a field does not fit its digits; with
+  // sb the fields are also appended to it as the original encoder did, and with branch (a level
+  // whose parent is on the way) the code of branch (or -1) is written to out[off+branch.level-1]
+  // from the remainders at its parent, so that both are encoded in one walk
+  private long digits(double latitude, double longitude, StringBuilder sb, MeshLevel branch, long[] out, int off){
+    int o;
+    int x,y,z;
+    if(latitude < 0.0){
+          o = 4;
+    }
+    else{
+          o = 0;
+    }
+    if(longitude < 0.0){
+          o = o + 2;
+    }
+    if(Math.abs(longitude) >= 100.0) o = o + 1;
+    z = o % 2;
+    y = ((o-z)/2) % 2;
+    x = (o - 2*y - z)/4;
+    o = o + 1;
+    latitude = (1-2*x)*latitude;
+    longitude = (1-2*y)*longitude;
+    double t = latitude*60/40;
+    int p = (int)Math.floor(t);
+    double a = (t-p)*40;
+    t = longitude-100*z;
+    int u = (int)Math.floor(t);
+    double b = t-u;
+    // every field must fit its width (3 digits for p, 2 digits for u, 1 digit for the rest),
+    // otherwise the concatenated string of the original encoder has a different length
+    int bad = p | u | (999-p) | (99-u);
+    long code = (o*1000L + p)*100L + u;
+    if(sb != null){
+      sb.append(o);
+      if(p < 10.0) sb.append("00"); else if(p < 100.0) sb.append("0");
+      sb.append(p);
+      if(u < 10.0) sb.append("0");
+      sb.append(u);
+    }
+    for(int k = 0; k < steps; k++){
+      t = a*latMul[k]/latDiv[k];
+      int dl = (int)Math.floor(t);
+      a = (t-dl)*latDiv[k];
+      t = b*longMul[k]/longDiv[k];
+      int dg = (int)Math.floor(t);
+      b = (t-dg)*longDiv[k];
+      if(quadrant[k]){
+        int s = dl*2+dg+1;
+        bad |= s | (9-s);
+        code = code*10L + s;
+        if(sb != null) sb.append(s);
+      }else{
+        bad |= dl | dg | (9-dl) | (9-dg);
+        code = (code*10L + dl)*10L + dg;
+        if(sb != null) sb.append(dl).append(dg);
+      }
+      if(branch != null && k == branch.steps-2){
+        int j = k+1;
+        t = a*branch.latMul[j]/branch.latDiv[j];
+        int el = (int)Math.floor(t);
+        t = b*branch.longMul[j]/branch.longDiv[j];
+        int eg = (int)Math.floor(t);
+        long c;
+        int eb;
+        if(branch.quadrant[j]){
+          int s = el*2+eg+1;
+          eb = bad | s | (9-s);
+          c = code*10L + s;
+        }else{
+          eb = bad | el | eg | (9-el) | (9-eg);
+          c = (code*10L + el)*10L + eg;
+        }
+        out[off+branch.level-1] = eb < 0 ? -1 : c;
+      }
+    }
+    return(bad < 0 ? -1 : code);
+  }
+
+  // corners of a code of ndigits digits into res (if not null) or out[off] to out[off+3] : lat0,
+  // long0, lat1, long1. Levels 1 to 7 take the floating point steps and the truncation (myformat8)
+  // of the original decoder; a level made by subdivide takes the exact corners of its row and
+  // column, the truncation being as coarse as its squares, and returns false if a digit is out of
+  // range.
+  boolean decode(long meshcode, double[] out, int off, Worldmesh res){
+    if(level == 0){
+      long c = cell(meshcode);
+      if(c < 0) return(false);
+      long gy = (c >>> 32) - rows, gx = (c & 0xFFFFFFFFL) - cols;
+      corners((gy+1) * 90.0 / rows, gx * 180.0 / cols, gy * 90.0 / rows, (gx+1) * 180.0 / cols, out, off, res);
+      return(true);
+    }
+    long m = meshcode;
+    long nib = 0;   // the digits below 80km, 4 bits each, the first one lowest
+    for(int i = ndigits-7; i >= 0; i--){
+      long q = m / 10;
+      nib |= (m - q*10) << (4*i);
+      m = q;
+    }
+    int code0 = (int)(m / 100000) - 1; // transforming code0 from 0 to 7
+    int code12 = (int)(m / 100 % 1000);
+    int code34 = (int)(m % 100);
+    int z = code0 % 2;
+    int y = ((code0 - z)/2) % 2;
+    int x = (code0 - 2*y - z)/4;
+    double lat0 = (code12 + corner[0]*(1-x)) * 2.0 / 3.0;
+    double long0 = (code34 + corner[0]*y) + 100*z;
+    for(int k = 0; k < steps; k++){
+      int r, c;
+      if(quadrant[k]){
+        int d = (int)(nib & 15) - 1;
+        nib >>>= 4;
+        r = truncated ? d/2 : Math.floorDiv(d, 2);
+        c = d%2;
+      }else{
+        r = (int)(nib & 15);
+        c = (int)(nib >>> 4 & 15);
+        nib >>>= 8;
+      }
+      double tl = (r + corner[k+1]*(1-x)) / 3.0;
+      double tg = c + corner[k+1]*y;
+      for(int j = 0; j < oddEnd[k]; j++){
+        tl = tl / odd[j];
+        tg = tg / odd[j];
+      }
+      lat0 = lat0 + tl*latScale[k];
+      long0 = long0 + tg*longScale[k];
+    }
+    lat0 = (1-2*x)*lat0;
+    long0 = (1-2*y)*long0;
+    double lat1 = Worldmesh.myformat8(lat0-dlat);
+    double long1 = Worldmesh.myformat8(long0+dlong);
+    corners(Worldmesh.myformat8(lat0), Worldmesh.myformat8(long0), lat1, long1, out, off, res);
+    return(true);
+  }
+
+  private static void corners(double lat0, double long0, double lat1, double long1, double[] out, int off, Worldmesh res){
+    if(res != null){
+      res.lat0 = lat0;
+      res.long0 = long0;
+      res.lat1 = lat1;
+      res.long1 = long1;
+    }else{
+      out[off] = lat0;
+      out[off+1] = long0;
+      out[off+2] = lat1;
+      out[off+3] = long1;
+    }
+  }
+
+  // global row y and global column x (as in Worldmesh) of a code of ndigits digits, packed as
+  // (y + rows) << 32 | (x + cols); -1 if it is not a code of this level. The digits are taken from
+  // the end of the code with constant divisors.
+  long cell(long meshcode){
+    long m = meshcode;
+    int row = 0, col = 0, w = 1;
+    for(long p = program; p != 0; p >>>= 5){
+      int f = (int)p & 15;
+      int r, c;
+      if((p & 16) != 0){
+        long q = m / 10;
+        int d = (int)(m - q*10) - 1;
+        m = q;
+        if(d < 0 || d > 3) return(-1);
+        r = d >> 1;
+        c = d & 1;
+      }else{
+        long q = m / 100;
+        int d = (int)(m - q*100);
+        m = q;
+        r = d / 10;
+        c = d - r*10;
+        if(r >= f || c >= f) return(-1);
+      }
+      row += r*w;
+      col += c*w;
+      w *= f;
+    }
+    // the 80km code is left, 6 digits from area 1 to 8
+    if(m < 100000 || m >= 900000) return(-1);
+    int h = (int)m;
+    int area = h / 100000;
+    int r80 = h / 100 % 1000;
+    int c80 = h % 100;
+    if(r80 >= 135) return(-1);
+    if((area-1) % 2 == 1){
+      if(c80 >= 80) return(-1);
+      c80 += 100;
+    }
+    row += r80*w;
+    col += c80*w;
+    int gy = area > 4 ? -row-1 : row;
+    int gx = (area-1) % 4 >= 2 ? -col-1 : col;
+    return((long)(gy + rows) << 32 | (gx + cols));
+  }
+
+  // code of the square at latitude row and longitude column (counted from the equator and the
+  // prime meridian within the hemispheres given by south and west); inverse of cell
+  long code_of_cell(boolean south, boolean west, int row, int col){
+    long code = 0, scale = 1;
+    for(int k = steps-1; k >= 0; k--){
+      int f = factors[k];
+      int qr = quot(row, f), qc = quot(col, f);
+      int r = row - qr*f, c = col - qc*f;
+      row = qr;
+      col = qc;
+      if(quadrant[k]){
+        code += (r*2 + c + 1) * scale;
+        scale *= 10;
+      }else{
+        code += (r*10 + c) * scale;
+        scale *= 100;
+      }
+    }
+    int z = col >= 100 ? 1 : 0;
+    long head = ((1 + (south ? 4 : 0) + (west ? 2 : 0) + z)*1000L + row)*100L + col - 100*z;
+    return(head*scale + code);
+  }
+
+  // x / f for x >= 0, with constant divisors for the factors of the built-in levels so that the JIT
+  // multiplies instead of dividing
+  private static int quot(int x, int f){
+    switch(f){
+    case 2: return(x >> 1);
+    case 5: return(x / 5);
+    case 8: return(x >> 3);
+    case 10: return(x / 10);
+    default: return(x / f);
+    }
+  }
+}
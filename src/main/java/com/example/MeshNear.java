@@ -0,0 +1,226 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+// Grid squares of one level near a point: the squares whose centres lie within a distance of the
+// point, and the k squares with the nearest centres. Distances are geodesic on the WGS84
+// ellipsoid (Worldmesh.Vincenty), but cheap bounds settle almost every square without it.
+//
+// Starting from the row of the point, rows are taken outwards as long as the meridian arc between
+// the latitude of the point and that of their centres (a lower bound of the distance) is within
+// the distance, so the rows beyond are dismissed whole. In a row, a centre at longitude dlong from
+// the point is at least rho*sin(dlong) from it (rho : distance of the centre from the axis), which
+// gives the window of columns to look at. In the window each centre gets its chord c (the straight
+// line through the ellipsoid, from sines and cosines kept per row and per column): the geodesic s
+// is at least c and, as its curvature is at most a/b^2, at most 2R*asin(c/2R) with R = b^2/a, so
+// a square is out if c is beyond the distance and in if 2R*asin(c/2R) is within it. Only the
+// squares between, a band a fraction of a millimetre wide for distances of a few km, are
+// decided by Vincenty.
+//
+// The nearest squares are looked for within a distance growing from a few squares (doubling each
+// time, only the squares not looked at before being taken), until k squares accepted by the
+// filter are within it by the upper bound; the geodesic is then worked out for the squares whose
+// chord is within the k-th upper bound, which is k squares and the few tied with them.
+final class MeshNear {
+  private static final double E2 = Worldmesh.WGS84_F*(2.0 - Worldmesh.WGS84_F);
+  private static final double R = Worldmesh.WGS84_A*(1.0 - Worldmesh.WGS84_F)*(1.0 - Worldmesh.WGS84_F);  // b^2/a
+
+  private final Worldmesh wm;
+  private final int level;
+  private final int rows;
+  private final int cols;
+  private final double latitude;
+  private final double longitude;
+  private final double rho;      // distance of the point from the axis and from the equatorial plane
+  private final double z;
+  private final int y;           // row and column of the point
+  private final long x;
+
+  private MeshNear(Worldmesh wm, int level, double latitude, double longitude){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    if(!(Math.abs(latitude) <= 90.0 && Math.abs(longitude) <= 180.0)){
+      throw new IllegalArgumentException("point out of range: " + latitude + ", " + longitude);
+    }
+    this.wm = wm;
+    this.level = level;
+    this.rows = Worldmesh.LEVEL_ROWS[level];
+    this.cols = Worldmesh.LEVEL_COLS[level];
+    this.latitude = latitude;
+    this.longitude = longitude;
+    double[] p = ecef(latitude);
+    this.rho = p[0];
+    this.z = p[1];
+    this.y = (int)Math.max(-rows, Math.min(rows-1, Math.floor(latitude * rows / 90.0)));
+    this.x = (long)Math.max(-cols, Math.min(cols-1, Math.floor(longitude * cols / 180.0)));
+  }
+
+  private static void check_distance(double distance){
+    if(!(distance >= 0.0)) throw new IllegalArgumentException("distance must not be negative: " + distance);
+  }
+
+  // squares of level whose centres lie within distance metres of (latitude, longitude), row by row
+  // from south to north, each row from west to east
+  static void within(Worldmesh wm, int level, double latitude, double longitude, double distance, LongConsumer sink){
+    check_distance(distance);
+    Objects.requireNonNull(sink);
+    MeshNear near = new MeshNear(wm, level, latitude, longitude);
+    near.scan(distance, -1.0, (cy, cx, c) -> {
+      if(c <= distance && (upper(c) <= distance || near.geodesic(cy, cx) <= distance)) sink.accept(Worldmesh.cell(level, cy, cx, near.cols));
+    });
+  }
+
+  // the k squares of level for which filter holds (every square if filter is null) with the
+  // centres nearest to (latitude, longitude) and within maxDistance metres of it, nearest first
+  // (equal distances in code order): codes into out[off+i] and distances into distance[off+i]
+  // (unless distance is null); returns the number found
+  static int nearest(Worldmesh wm, int level, double latitude, double longitude, int k, double maxDistance, LongPredicate filter,
+                     long[] out, double[] distance, int off){
+    check_distance(maxDistance);
+    if(k < 0) throw new IllegalArgumentException("k must not be negative: " + k);
+    Objects.checkFromIndexSize(off, k, out.length);
+    if(distance != null) Objects.checkFromIndexSize(off, k, distance.length);
+    MeshNear near = new MeshNear(wm, level, latitude, longitude);
+    if(k == 0) return(0);
+    Candidates found = new Candidates();
+    // a start taking in about k squares
+    double h = Worldmesh.meridian_arc(Math.min(90.0, latitude + 90.0 / near.rows)) - Worldmesh.meridian_arc(latitude);
+    double w = near.rho * Math.PI / near.cols;
+    double r = Math.min(maxDistance, Math.sqrt(k) * Math.max(h, w));
+    double done = -1.0;
+    for(;;){
+      double limit = r;
+      near.scan(r, done, (cy, cx, c) -> {
+        if(c <= limit && (filter == null || filter.test(Worldmesh.cell(level, cy, cx, near.cols)))) found.add(cy, cx, c);
+      });
+      if(found.n >= k && found.kth_upper(k) <= r) break;
+      if(r >= maxDistance || r >= Math.PI * Worldmesh.WGS84_A) break;
+      done = r;
+      r = Math.min(maxDistance, 2.0 * r);
+    }
+    // geodesics of the squares which may be among the k nearest
+    double bound = found.n >= k ? Math.min(found.kth_upper(k), maxDistance) : maxDistance;
+    int m = 0;
+    for(int i = 0; i < found.n; i++){
+      if(found.c[i] > bound) continue;
+      double s = near.geodesic(found.y[i], found.x[i]);
+      if(s > maxDistance) continue;
+      found.y[m] = found.y[i];
+      found.x[m] = found.x[i];
+      found.c[m] = s;
+      found.code[m] = Worldmesh.cell(level, found.y[i], found.x[i], near.cols);
+      m++;
+    }
+    Integer[] order = new Integer[m];
+    for(int i = 0; i < m; i++) order[i] = i;
+    Arrays.sort(order, (a, b) -> found.c[a] != found.c[b] ? Double.compare(found.c[a], found.c[b]) : Long.compare(found.code[a], found.code[b]));
+    int n = Math.min(k, m);
+    for(int i = 0; i < n; i++){
+      out[off+i] = found.code[order[i]];
+      if(distance != null) distance[off+i] = found.c[order[i]];
+    }
+    return(n);
+  }
+
+  private interface CellVisitor {
+    void accept(int y, long x, double chord);
+  }
+
+  // passes the squares which may lie within r of the point (by the row and column bounds) and whose
+  // chords exceed skip to visitor, with their chords
+  private void scan(double r, double skip, CellVisitor visitor){
+    // rows within r by the meridian arc
+    double m = Worldmesh.meridian_arc(latitude);
+    int y0 = y, y1 = y;
+    while(y0 > -rows && m - Worldmesh.meridian_arc((y0 - 0.5) * 90.0 / rows) <= r) y0--;
+    while(y1 < rows-1 && Worldmesh.meridian_arc((y1 + 1.5) * 90.0 / rows) - m <= r) y1++;
+    // column window of each row
+    long[] first = new long[y1 - y0 + 1];
+    long[] last = new long[y1 - y0 + 1];
+    double[] rc = new double[y1 - y0 + 1];
+    double[] zc = new double[y1 - y0 + 1];
+    long lo = x, hi = x;
+    for(int cy = y0; cy <= y1; cy++){
+      double[] p = ecef((cy + 0.5) * 90.0 / rows);
+      int i = cy - y0;
+      rc[i] = p[0];
+      zc[i] = p[1];
+      if(r >= rc[i]){
+        first[i] = x - cols;
+        last[i] = x + cols - 1;
+      }else{
+        double dlong = Math.toDegrees(Math.asin(r / rc[i]));
+        first[i] = Math.max(x - cols, (long)Math.ceil((longitude - dlong) * cols / 180.0 - 0.5));
+        last[i] = Math.min(x + cols - 1, (long)Math.floor((longitude + dlong) * cols / 180.0 - 0.5));
+      }
+      lo = Math.min(lo, first[i]);
+      hi = Math.max(hi, last[i]);
+    }
+    // sin^2(dlong/2) of the centres of the columns
+    double[] s2 = new double[(int)(hi - lo + 1)];
+    for(int j = 0; j < s2.length; j++){
+      double s = Math.sin(Math.toRadians(((lo + j + 0.5) * 180.0 / cols - longitude) / 2.0));
+      s2[j] = s * s;
+    }
+    for(int cy = y0; cy <= y1; cy++){
+      int i = cy - y0;
+      double dr = rho - rc[i], dz = z - zc[i];
+      double base = dr*dr + dz*dz, cross = 4.0 * rho * rc[i];
+      for(long cx = first[i]; cx <= last[i]; cx++){
+        double c = Math.sqrt(base + cross * s2[(int)(cx - lo)]);
+        if(c > skip) visitor.accept(cy, cx, c);
+      }
+    }
+  }
+
+  // upper bound of the geodesic over a chord c
+  private static double upper(double c){
+    return(c < R ? 2.0 * R * Math.asin(c / (2.0 * R)) : Double.POSITIVE_INFINITY);
+  }
+
+  // geodesic from the point to the centre of the square at row cy, column cx
+  private double geodesic(int cy, long cx){
+    double lon = (cx + 0.5) * 180.0 / cols;
+    lon -= 360.0 * Math.floor((lon + 180.0) / 360.0);
+    return(wm.Vincenty(latitude, longitude, (cy + 0.5) * 90.0 / rows, lon));
+  }
+
+  // distance from the axis and from the equatorial plane of the point of the ellipsoid at latitude
+  private static double[] ecef(double latitude){
+    double phi = Math.toRadians(latitude);
+    double s = Math.sin(phi);
+    double n = Worldmesh.WGS84_A / Math.sqrt(1.0 - E2*s*s);
+    return(new double[]{n * Math.cos(phi), n * (1.0 - E2) * s});
+  }
+
+  // squares found, with their chords (later their geodesics) and codes
+  private static final class Candidates {
+    int[] y = new int[16];
+    long[] x = new long[16];
+    double[] c = new double[16];
+    long[] code = new long[16];
+    int n;
+
+    void add(int cy, long cx, double chord){
+      if(n == y.length){
+        y = Arrays.copyOf(y, 2*n);
+        x = Arrays.copyOf(x, 2*n);
+        c = Arrays.copyOf(c, 2*n);
+        code = Arrays.copyOf(code, 2*n);
+      }
+      y[n] = cy;
+      x[n] = cx;
+      c[n] = chord;
+      n++;
+    }
+
+    // k-th smallest upper bound of the geodesics
+    double kth_upper(int k){
+      double[] sorted = Arrays.copyOf(c, n);
+      Arrays.sort(sorted);
+      return(upper(sorted[k-1]));
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package com.example;
+
+import java.util.Objects;
+import java.util.concurrent.RecursiveAction;
+
+// Areas of overlap of a polygon with the grid squares of one level, for areal interpolation: every
+// square sharing some area with the polygon is emitted with the area of that part and its
+// fraction of the square.
+//
+// The polygon is cut down a hierarchy of blocks of squares in the integer cell space of Worldmesh
+// (as MeshCover): a block is halved along a row or a column boundary (80km boundaries first, then
+// the middle of its longer side) and the polygon clipped to each half with one half-plane
+// (Sutherland and Hodgman), so a square is reached through a few clips of small pieces instead
+// of the whole polygon. A block the clipped piece leaves empty is dropped and a block it covers
+// whole is emitted square by square with fraction 1 and the area of the square from the table of
+// MeshAreaTable, without further clipping; only the squares crossed by an edge are clipped down
+// to the single square.
+//
+// Edges are straight in latitude and longitude. The fraction of a square is the part of its area
+// the clipped piece covers, the area element of the ellipsoid (proportional to
+// cos(phi)/(1-e^2 sin^2(phi))^2) taken as linear in latitude across the square, and the area is
+// that fraction of the area of the square. The areas of a polygon over a level add up to its area
+// on the ellipsoid within the linearisation (about 1e-8 for 1km squares, 1e-5 for 80km squares).
+//
+// With parallel set, the blocks of different 80km squares run as ForkJoin tasks (in the pool of
+// the calling thread, or the common pool) and the visitor is called from several threads at a
+// time; otherwise the squares are emitted in one thread in an order which depends only on the
+// polygon.
+final class MeshOverlap {
+  private static final double E2 = Worldmesh.WGS84_F*(2.0 - Worldmesh.WGS84_F);
+  // a block whose clipped piece covers less than EMPTY of its area (in latitude and longitude) is
+  // left out, and one whose piece covers all but EMPTY of it is whole
+  private static final double EMPTY = 1e-12;
+
+  public interface Visitor {
+    // area square metres of the square meshcode, the fraction fraction of it (0 to 1), lie in the polygon
+    void accept(long meshcode, double area, double fraction);
+  }
+
+  private final int level;
+  private final int rows;
+  private final int cols;
+  private final int n;       // rows (and columns) of level in an 80km square
+  private final boolean parallel;
+  private final Visitor visitor;
+
+  private MeshOverlap(int level, boolean parallel, Visitor visitor){
+    this.level = level;
+    this.rows = Worldmesh.LEVEL_ROWS[level];
+    this.cols = Worldmesh.LEVEL_COLS[level];
+    this.n = rows / Worldmesh.LEVEL_ROWS[1];
+    this.parallel = parallel;
+    this.visitor = visitor;
+  }
+
+  // the squares of level overlapping the polygon with the vertices (latitude[off+i],
+  // longitude[off+i]) (i = 0 to len-1), closed from the last vertex back to the first; the edges
+  // must not cross each other, and holes and crossings of the 180th meridian are not supported
+  static void polygon(int level, double[] latitude, double[] longitude, int off, int len, boolean parallel, Visitor visitor){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    if(len < 3) throw new IllegalArgumentException("a polygon needs at least 3 vertices: " + len);
+    Objects.checkFromIndexSize(off, len, latitude.length);
+    Objects.checkFromIndexSize(off, len, longitude.length);
+    Objects.requireNonNull(visitor);
+    double[] x = new double[len];
+    double[] y = new double[len];
+    double lat0 = 90.0, lat1 = -90.0, long0 = 180.0, long1 = -180.0;
+    for(int i = 0; i < len; i++){
+      double la = latitude[off+i], lo = longitude[off+i];
+      if(!(Math.abs(la) <= 90.0 && Math.abs(lo) <= 180.0)){
+        throw new IllegalArgumentException("vertex " + i + " out of range: " + la + ", " + lo);
+      }
+      x[i] = lo;
+      y[i] = la;
+      lat0 = Math.min(lat0, la);
+      lat1 = Math.max(lat1, la);
+      long0 = Math.min(long0, lo);
+      long1 = Math.max(long1, lo);
+    }
+    Piece p = new Piece(x, y, len);
+    // counter-clockwise, so that every clipped piece has a positive area
+    if(p.area(long0, lat0) < 0) p.reverse();
+    MeshOverlap o = new MeshOverlap(level, parallel, visitor);
+    int ya = o.row(lat0), yb = o.row(lat1);
+    long xa = o.col(long0), xb = o.col(long1);
+    Piece q = p.clip(true, o.lat_of(ya), false).clip(true, o.lat_of(yb+1L), true)
+               .clip(false, o.long_of(xa), false).clip(false, o.long_of(xb+1L), true);
+    if(parallel){
+      o.new Block(ya, yb, xa, xb, q).invoke();
+    }else{
+      o.block(ya, yb, xa, xb, q);
+    }
+  }
+
+  private int row(double latitude){
+    return((int)Math.max(-rows, Math.min(rows-1, Math.floor(latitude * rows / 90.0))));
+  }
+
+  private long col(double longitude){
+    return((long)Math.max(-cols, Math.min(cols-1, Math.floor(longitude * cols / 180.0))));
+  }
+
+  private double lat_of(long y){
+    return(y * 90.0 / rows);
+  }
+
+  private double long_of(long x){
+    return(x * 180.0 / cols);
+  }
+
+  private final class Block extends RecursiveAction {
+    private final int ya;
+    private final int yb;
+    private final long xa;
+    private final long xb;
+    private final Piece piece;
+
+    Block(int ya, int yb, long xa, long xb, Piece piece){
+      this.ya = ya;
+      this.yb = yb;
+      this.xa = xa;
+      this.xb = xb;
+      this.piece = piece;
+    }
+
+    @Override
+    protected void compute(){
+      block(ya, yb, xa, xb, piece);
+    }
+  }
+
+  // the squares of rows ya to yb and columns xa to xb, p being the polygon clipped to them
+  private void block(int ya, int yb, long xa, long xb, Piece p){
+    double la0 = lat_of(ya), la1 = lat_of(yb+1L);
+    double lo0 = long_of(xa), lo1 = long_of(xb+1L);
+    double full = (la1 - la0) * (lo1 - lo0);
+    double s = p.area(lo0, la0);
+    if(s <= EMPTY * full) return;
+    int ty0 = Math.floorDiv(ya, n), ty1 = Math.floorDiv(yb, n);
+    long tx0 = Math.floorDiv(xa, n), tx1 = Math.floorDiv(xb, n);
+    boolean tiles = ty0 != ty1 || tx0 != tx1;
+    // a whole block of several 80km squares is still split when they run in parallel
+    if(s >= (1.0 - EMPTY) * full && !(parallel && tiles)){
+      whole(ya, yb, xa, xb);
+      return;
+    }
+    if(ya == yb && xa == xb){
+      partial(ya, xa, p, la0, lo0, la1, lo1, full);
+      return;
+    }
+    if(tiles){
+      // split along an 80km boundary; the halves run in parallel
+      Block a, b;
+      if(ty1 - ty0 >= tx1 - tx0){
+        int ym = (ty0 + (ty1 - ty0 + 1) / 2) * n;
+        double c = lat_of(ym);
+        a = new Block(ya, ym-1, xa, xb, p.clip(true, c, true));
+        b = new Block(ym, yb, xa, xb, p.clip(true, c, false));
+      }else{
+        long xm = (tx0 + (tx1 - tx0 + 1) / 2) * n;
+        double c = long_of(xm);
+        a = new Block(ya, yb, xa, xm-1, p.clip(false, c, true));
+        b = new Block(ya, yb, xm, xb, p.clip(false, c, false));
+      }
+      if(parallel){
+        RecursiveAction.invokeAll(a, b);
+      }else{
+        a.compute();
+        b.compute();
+      }
+      return;
+    }
+    if(yb - ya >= xb - xa){
+      int ym = ya + (yb - ya + 1) / 2;
+      double c = lat_of(ym);
+      block(ya, ym-1, xa, xb, p.clip(true, c, true));
+      block(ym, yb, xa, xb, p.clip(true, c, false));
+    }else{
+      long xm = xa + (xb - xa + 1) / 2;
+      double c = long_of(xm);
+      block(ya, yb, xa, xm-1, p.clip(false, c, true));
+      block(ya, yb, xm, xb, p.clip(false, c, false));
+    }
+  }
+
+  private void whole(int ya, int yb, long xa, long xb){
+    for(int y = ya; y <= yb; y++){
+      double a = MeshAreaTable.row_area(level, y);
+      for(long x = xa; x <= xb; x++) visitor.accept(Worldmesh.cell(level, y, x, cols), a, 1.0);
+    }
+  }
+
+  // the square of row y and column x (latitude la0 to la1, longitude lo0 to lo1), p being the
+  // polygon clipped to it and covering part of it
+  private void partial(int y, long x, Piece p, double la0, double lo0, double la1, double lo1, double full){
+    double ws = weight(la0), wn = weight(la1);
+    double h = la1 - la0;
+    // area element ws + (wn-ws)*(phi-la0)/h integrated over the piece and over the square
+    double in = ws * p.area(lo0, la0) + (wn - ws) / h * p.moment(lo0, la0);
+    double f = Math.max(0.0, Math.min(1.0, in / (full * (ws + wn) * 0.5)));
+    visitor.accept(Worldmesh.cell(level, y, x, cols), f * MeshAreaTable.row_area(level, y), f);
+  }
+
+  // area element of the ellipsoid at latitude (up to a constant factor)
+  private static double weight(double latitude){
+    double phi = Math.toRadians(latitude);
+    double s = Math.sin(phi);
+    double w = 1.0 - E2*s*s;
+    return(Math.cos(phi) / (w*w));
+  }
+
+  // a polygon clipped to a block, as its vertices (longitude x, latitude y) without the first repeated
+  private static final class Piece {
+    private final double[] x;
+    private final double[] y;
+    private final int n;
+
+    Piece(double[] x, double[] y, int n){
+      this.x = x;
+      this.y = y;
+      this.n = n;
+    }
+
+    void reverse(){
+      for(int i = 0, j = n-1; i < j; i++, j--){
+        double t = x[i]; x[i] = x[j]; x[j] = t;
+        t = y[i]; y[i] = y[j]; y[j] = t;
+      }
+    }
+
+    // signed area in degrees^2 (shoelace), measured from (x0, y0) for accuracy
+    double area(double x0, double y0){
+      double s = 0.0;
+      for(int i = 0, j = n-1; i < n; j = i++){
+        s += (x[j] - x0) * (y[i] - y0) - (x[i] - x0) * (y[j] - y0);
+      }
+      return(s * 0.5);
+    }
+
+    // integral of the latitude over the piece, latitude measured from y0 and longitude from x0
+    double moment(double x0, double y0){
+      double s = 0.0;
+      for(int i = 0, j = n-1; i < n; j = i++){
+        double c = (x[j] - x0) * (y[i] - y0) - (x[i] - x0) * (y[j] - y0);
+        s += (y[j] - y0 + y[i] - y0) * c;
+      }
+      return(s / 6.0);
+    }
+
+    // the part of the piece on one side of latitude (or longitude if latitude is false) c : below
+    // (or west of) it if below is set, above (or east of) it if not
+    Piece clip(boolean latitude, double c, boolean below){
+      if(n == 0) return(this);
+      double[] u = latitude ? y : x;   // coordinate tested
+      double[] v = latitude ? x : y;   // the other one
+      double[] nu = new double[2*n];
+      double[] nv = new double[2*n];
+      int m = 0;
+      for(int i = 0, j = n-1; i < n; j = i++){
+        boolean in = below ? u[i] <= c : u[i] >= c;
+        boolean prev = below ? u[j] <= c : u[j] >= c;
+        if(in != prev){
+          nu[m] = c;
+          nv[m++] = v[j] + (c - u[j]) * (v[i] - v[j]) / (u[i] - u[j]);
+        }
+        if(in){
+          nu[m] = u[i];
+          nv[m++] = v[i];
+        }
+      }
+      return(latitude ? new Piece(nv, nu, m) : new Piece(nu, nv, m));
+    }
+  }
+}
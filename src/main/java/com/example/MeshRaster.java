@@ -0,0 +1,218 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+// A file of one double per grid square of one level over a rectangle of squares, read through
+// memory-mapped buffers.
+//
+// The file is a 64 byte header followed by the values row by row (south to north, each row west to
+// east), all little-endian:
+//
+//   0  : "WMRASTER"
+//   8  : version (1)
+//   12 : level (1 to 6, 7 : extended 100m)
+//   16 : global row y0 and global column x0 of the south-west square (see Worldmesh.meshcode_to_cell)
+//   24 : number of rows and of columns
+//   32 : reserved (0)
+//   64 : rows*cols values, NaN for squares without a value
+//
+// Opening a file maps it without reading it; a lookup takes the row and column from the digits of
+// the code (Worldmesh.meshcode_cell) and reads one double, so the values stay off the heap and only
+// the pages touched are read from disk. A file is mapped in segments of 1 GB, so rasters larger than
+// a single buffer (e.g. 125m squares over Japan) work as well. The rectangle does not cross the
+// 180th meridian.
+final class MeshRaster {
+  private static final byte[] MAGIC = "WMRASTER".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  static final int HEADER = 64;
+  private static final int SEGMENT_SHIFT = 27;   // 2^27 values (1 GB) per mapped segment
+
+  private final int level;
+  private final int y0;
+  private final int x0;
+  private final int rows;
+  private final int cols;
+  private final MappedByteBuffer[] segments;
+
+  private MeshRaster(int level, int y0, int x0, int rows, int cols, MappedByteBuffer[] segments){
+    this.level = level;
+    this.y0 = y0;
+    this.x0 = x0;
+    this.rows = rows;
+    this.cols = cols;
+    this.segments = segments;
+  }
+
+  // maps the raster file read-only
+  public static MeshRaster open(Path file) throws IOException {
+    try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+      ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      while(h.hasRemaining()){
+        if(ch.read(h, h.position()) < 0) break;
+      }
+      if(h.hasRemaining()) throw new IOException(file + ": not a raster file (too short)");
+      for(int i = 0; i < MAGIC.length; i++){
+        if(h.get(i) != MAGIC[i]) throw new IOException(file + ": not a raster file");
+      }
+      if(h.getInt(8) != VERSION) throw new IOException(file + ": unknown raster version " + h.getInt(8));
+      int level = h.getInt(12), y0 = h.getInt(16), x0 = h.getInt(20), rows = h.getInt(24), cols = h.getInt(28);
+      if(!valid(level, y0, x0, rows, cols)) throw new IOException(file + ": bad raster bounds");
+      long values = (long)rows * cols;
+      if(ch.size() != HEADER + 8*values) throw new IOException(file + ": size " + ch.size() + " does not match the header");
+      return(new MeshRaster(level, y0, x0, rows, cols, map(ch, FileChannel.MapMode.READ_ONLY, values)));
+    }
+  }
+
+  private static boolean valid(int level, int y0, int x0, int rows, int cols){
+    if(level < 1 || level > 7 || rows < 1 || cols < 1) return(false);
+    int r = Worldmesh.LEVEL_ROWS[level], c = Worldmesh.LEVEL_COLS[level];
+    return(y0 >= -r && (long)y0 + rows <= r && x0 >= -c && (long)x0 + cols <= c);
+  }
+
+  private static MappedByteBuffer[] map(FileChannel ch, FileChannel.MapMode mode, long values) throws IOException {
+    MappedByteBuffer[] segments = new MappedByteBuffer[(int)((values + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+    for(int s = 0; s < segments.length; s++){
+      long first = (long)s << SEGMENT_SHIFT;
+      long n = Math.min(1L << SEGMENT_SHIFT, values - first);
+      segments[s] = ch.map(mode, HEADER + 8*first, 8*n);
+      segments[s].order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return(segments);
+  }
+
+  public int level(){
+    return(level);
+  }
+
+  // global row and column of the south-west square, and the number of rows and columns
+  public int row0(){
+    return(y0);
+  }
+
+  public int col0(){
+    return(x0);
+  }
+
+  public int rows(){
+    return(rows);
+  }
+
+  public int cols(){
+    return(cols);
+  }
+
+  // value of the grid square meshcode; NaN if it has none, lies outside the raster, is of another
+  // level or is not a grid square code
+  public double get(long meshcode){
+    long c = Worldmesh.meshcode_cell(meshcode, level == 7);
+    if((int)(c >>> 48) != level) return(Double.NaN);
+    return(get((int)((c >>> 24) & 0xFFFFFF) - Worldmesh.LEVEL_ROWS[level], (int)(c & 0xFFFFFF) - Worldmesh.LEVEL_COLS[level]));
+  }
+
+  // value of the square at global row y and global column x, NaN if it has none or lies outside the raster
+  public double get(int y, int x){
+    int r = y - y0, k = x - x0;
+    if(r < 0 || r >= rows || k < 0 || k >= cols) return(Double.NaN);
+    long i = (long)r * cols + k;
+    return(segments[(int)(i >>> SEGMENT_SHIFT)].getDouble((int)(i & ((1L << SEGMENT_SHIFT) - 1)) << 3));
+  }
+
+  // get of meshcode[off+i] into out[outOff+i] for i = 0 to len-1
+  public void get(long[] meshcode, int off, int len, double[] out, int outOff){
+    Objects.checkFromIndexSize(off, len, meshcode.length);
+    Objects.checkFromIndexSize(outOff, len, out.length);
+    for(int i = 0; i < len; i++) out[outOff+i] = get(meshcode[off+i]);
+  }
+
+  // Writes a raster file. The file is created at its full size with every value NaN and mapped
+  // read-write; put stores values straight into the mapping, in any order, and close writes the
+  // header, so a file whose writing was not finished is not taken by open.
+  public static final class Builder implements Closeable {
+    private final FileChannel ch;
+    private final MeshRaster raster;
+    private boolean closed;
+
+    // a raster of the squares of level (1 to 6, 7 : extended 100m) meeting the box latitude lat0 to
+    // lat1, longitude long0 to long1 (as Worldmesh.meshcode_cover_bbox, but not crossing the 180th meridian)
+    public Builder(Path file, int level, double lat0, double long0, double lat1, double long1) throws IOException {
+      if(long0 > long1) throw new IllegalArgumentException("a raster must not cross the 180th meridian: " + long0 + ", " + long1);
+      long[] box = MeshCover.box_cells(level, lat0, long0, lat1, long1);
+      int y0 = (int)box[0], x0 = (int)box[2];
+      int rows = (int)(box[1] - box[0] + 1), cols = (int)(box[3] - box[2] + 1);
+      ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try{
+        long values = (long)rows * cols;
+        ch.write(ByteBuffer.allocate(HEADER), 0);
+        MappedByteBuffer[] segments = map(ch, FileChannel.MapMode.READ_WRITE, values);
+        ByteBuffer nan = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        while(nan.hasRemaining()) nan.putDouble(Double.NaN);
+        for(MappedByteBuffer b : segments){
+          ByteBuffer d = b.duplicate();
+          while(d.hasRemaining()){
+            nan.clear().limit(Math.min(nan.capacity(), d.remaining()));
+            d.put(nan);
+          }
+        }
+        raster = new MeshRaster(level, y0, x0, rows, cols, segments);
+      }catch(IOException | RuntimeException e){
+        ch.close();
+        throw e;
+      }
+    }
+
+    // the raster being written (values put so far can be read from it)
+    public MeshRaster raster(){
+      return(raster);
+    }
+
+    // stores value for the grid square meshcode of the level of the raster; throws
+    // IllegalArgumentException if meshcode is not such a code or lies outside the raster
+    public void put(long meshcode, double value){
+      long c = Worldmesh.meshcode_cell(meshcode, raster.level == 7);
+      if((int)(c >>> 48) != raster.level) throw new IllegalArgumentException(meshcode + " is not a grid square code of level " + raster.level);
+      put((int)((c >>> 24) & 0xFFFFFF) - Worldmesh.LEVEL_ROWS[raster.level], (int)(c & 0xFFFFFF) - Worldmesh.LEVEL_COLS[raster.level], value);
+    }
+
+    // stores value for the square at global row y and global column x
+    public void put(int y, int x, double value){
+      if(closed) throw new IllegalStateException("closed");
+      int r = y - raster.y0, k = x - raster.x0;
+      if(r < 0 || r >= raster.rows || k < 0 || k >= raster.cols){
+        throw new IllegalArgumentException("row " + y + ", column " + x + " lies outside the raster");
+      }
+      long i = (long)r * raster.cols + k;
+      raster.segments[(int)(i >>> SEGMENT_SHIFT)].putDouble((int)(i & ((1L << SEGMENT_SHIFT) - 1)) << 3, value);
+    }
+
+    // put of meshcode[off+i] with value[off+i] for i = 0 to len-1
+    public void put(long[] meshcode, double[] value, int off, int len){
+      Objects.checkFromIndexSize(off, len, meshcode.length);
+      Objects.checkFromIndexSize(off, len, value.length);
+      for(int i = 0; i < len; i++) put(meshcode[off+i], value[off+i]);
+    }
+
+    // flushes the values and writes the header
+    @Override
+    public void close() throws IOException {
+      if(closed) return;
+      closed = true;
+      try(FileChannel c = ch){
+        for(MappedByteBuffer b : raster.segments) b.force();
+        ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        h.put(MAGIC).putInt(VERSION).putInt(raster.level).putInt(raster.y0).putInt(raster.x0).putInt(raster.rows).putInt(raster.cols);
+        h.clear();
+        while(h.hasRemaining()) c.write(h, h.position());
+        c.force(true);
+      }
+    }
+  }
+}
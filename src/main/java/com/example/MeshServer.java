@@ -0,0 +1,594 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// A local HTTP service of the encoder, the decoder, the area table, the neighbour lookups and
+// Vincenty, so that programs outside the JVM pay for its start once instead of once per call
+// (java com.example.Main serve [port]). It is built on the HTTP server of the JDK
+// (com.sun.net.httpserver) and needs nothing else.
+//
+// Exchanges are handled on virtual threads where the JVM has them (Java 21 and later; looked up at
+// run time, as the library is built for Java 11) and on a cached pool of daemon threads otherwise,
+// so a slow client holds one thread and nothing more.
+//
+// operation                 record in               record out
+// /encode?level=L           latitude,longitude      code (0 for a position out of range)
+// /decode?ext=B             code                    lat0,long0,lat1,long1 (NaN for a code that is not one)
+// /area?ext=B               code                    W1,W2,H,A (NaN for a code that is not one)
+// /neighbours?ext=B&n=N     code                    N codes (4 : N, E, S, W; 8 : N, NE, E, SE, S,
+//                                                   SW, W, NW; 0 beyond a pole or for a code that is not one)
+// /distance                 lat1,lon1,lat2,lon2     metres (Vincenty)
+//
+// (L : 1 to 6, 7 : extended 100m; B : true or false, false by default; N : 4 or 8, 8 by default)
+//
+// GET answers a single record given in the query, e.g. /encode?level=3&lat=35.59&lon=139.67,
+// /decode?code=2053393503, /distance?lat1=35&lon1=139&lat2=36&lon2=140. POST answers a batch
+// in the body, with one record out per record in, in order:
+// text   : one record per line, fields separated by commas; a line which does not parse gives the
+//          result of a code 0 or a position NaN
+// binary : (Content-Type application/octet-stream) little-endian records, doubles for positions
+//          and longs for codes; out, longs for codes and doubles for everything else. A partial
+//          record at the end is dropped.
+// A body is read and answered BLOCK records at a time, so the response streams back while the
+// body is still arriving and a batch of any size runs in a fixed amount of memory.
+//
+// Small requests to /encode and /decode (a single record or a batch of at most SMALL records)
+// are coalesced: each is queued, and the first one to find no batch running runs everything
+// queued (up to MAX_BATCH records) as one cal_meshcode_batch or meshcode_to_latlong_grid_batch,
+// the others waiting for their results. A lone request runs at once, with no timer to wait for;
+// under load the calls of many requests run in one batch.
+final class MeshServer {
+  static final int BLOCK = 1 << 13;
+  static final int SMALL = 256;
+  static final int MAX_BATCH = 1 << 14;
+
+  private static final int ENCODE = 0;
+  private static final int DECODE = 1;
+  private static final int AREA = 2;
+  private static final int NEIGHBOURS = 3;
+  private static final int DISTANCE = 4;
+  private static final String[] PATHS = {"/encode", "/decode", "/area", "/neighbours", "/distance"};
+  private static final String BINARY = "application/octet-stream";
+
+  // encode per level (index 1 to 7), decode per extension flag
+  private static final Coalescer[] ENCODERS = new Coalescer[8];
+  private static final Coalescer[] DECODERS = {new Coalescer(0, false), new Coalescer(0, true)};
+  static {
+    for(int level = 1; level <= 7; level++) ENCODERS[level] = new Coalescer(level, false);
+  }
+
+  private MeshServer(){
+  }
+
+  // starts a server on address (port 0 : any free port); stop it with HttpServer.stop
+  static HttpServer start(InetSocketAddress address) throws IOException {
+    // the headers and the body go out in separate writes, and with Nagle's algorithm the body
+    // waits for the delayed acknowledgement of the headers (40ms on Linux) on every request; the
+    // property is read once, when the first server is made
+    if(System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    HttpServer server = HttpServer.create(address, 0);
+    for(int op = 0; op < PATHS.length; op++){
+      int o = op;
+      server.createContext(PATHS[op], ex -> exchange(ex, o));
+    }
+    server.setExecutor(executor());
+    server.start();
+    return(server);
+  }
+
+  private static ExecutorService executor(){
+    try{
+      return((ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+    }catch(ReflectiveOperationException e){
+      return(Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "worldmesh-server");
+        t.setDaemon(true);
+        return(t);
+      }));
+    }
+  }
+
+  // request of an operation : its parameters, whether the body is binary, and the buffers of a block
+  private static final class Request {
+    final int op;
+    final int level;
+    final boolean extension;
+    final int neighbours;
+    final boolean binary;
+    final int records;          // records of a block
+    final double[] positions;   // 2 (encode) or 4 (distance) per record
+    final long[] codes;
+    final long[] outCodes;      // 1 (encode) or neighbours per record
+    final double[] outValues;   // 4 (decode, area) or 1 (distance) per record
+    final Worldmesh wm = new Worldmesh();
+
+    Request(int op, Map<String, String> query, boolean binary, int records){
+      this.op = op;
+      this.level = op == ENCODE ? level(query.get("level")) : 0;
+      this.extension = flag(query.get("ext"));
+      this.neighbours = op == NEIGHBOURS ? count(query.get("n")) : 0;
+      this.binary = binary;
+      this.records = records;
+      this.positions = op == ENCODE || op == DISTANCE ? new double[(op == ENCODE ? 2 : 4) * records] : null;
+      this.codes = positions == null ? new long[records] : null;
+      this.outCodes = op == ENCODE || op == NEIGHBOURS ? new long[(op == ENCODE ? 1 : neighbours) * records] : null;
+      this.outValues = outCodes == null ? new double[(op == DISTANCE ? 1 : 4) * records] : null;
+    }
+
+    int fields(){
+      return(MeshServer.fields(op));
+    }
+
+    // bytes of a record in and out in binary
+    int in_bytes(){
+      return(8 * fields());
+    }
+
+    int out_bytes(){
+      return(8 * (op == ENCODE || op == DISTANCE ? 1 : op == NEIGHBOURS ? neighbours : 4));
+    }
+
+    // results of the n records of the block (a small request is coalesced with others)
+    void run(int n, boolean small){
+      switch(op){
+      case ENCODE:
+        for(int i = 0; i < n; i++){
+          if(!(Math.abs(positions[2*i]) <= 90.0 && Math.abs(positions[2*i+1]) <= 180.0)) positions[2*i] = positions[2*i+1] = Double.NaN;
+        }
+        if(small){
+          ENCODERS[level].submit(this, n);
+        }else{
+          encode(level, positions, n, outCodes, 0);
+        }
+        break;
+      case DECODE:
+        if(small){
+          DECODERS[extension ? 1 : 0].submit(this, n);
+        }else{
+          wm.meshcode_to_latlong_grid_batch(codes, 0, n, extension, outValues, 0);
+        }
+        break;
+      case AREA:
+        for(int i = 0; i < n; i++){
+          if(wm.cal_area_from_table(codes[i], extension, wm)){
+            outValues[4*i] = wm.W1;
+            outValues[4*i+1] = wm.W2;
+            outValues[4*i+2] = wm.H;
+            outValues[4*i+3] = wm.A;
+          }else{
+            Arrays.fill(outValues, 4*i, 4*i + 4, Double.NaN);
+          }
+        }
+        break;
+      case NEIGHBOURS:
+        for(int i = 0; i < n; i++){
+          boolean ok = neighbours == 8 ? wm.meshcode_neighbours8(codes[i], extension, outCodes, 8*i)
+                                       : wm.meshcode_neighbours4(codes[i], extension, outCodes, 4*i);
+          if(!ok) Arrays.fill(outCodes, neighbours*i, neighbours*(i+1), 0L);
+        }
+        break;
+      default:
+        for(int i = 0; i < n; i++){
+          outValues[i] = wm.Vincenty(positions[4*i], positions[4*i+1], positions[4*i+2], positions[4*i+3]);
+        }
+      }
+    }
+  }
+
+  // fields of a record in
+  private static int fields(int op){
+    return(op == ENCODE ? 2 : op == DISTANCE ? 4 : 1);
+  }
+
+  // codes of level of the n positions (latitude, longitude pairs), 0 for NaN positions, into out[outOff+i]
+  private static void encode(int level, double[] positions, int n, long[] out, int outOff){
+    double[] lat = new double[n];
+    double[] lon = new double[n];
+    for(int i = 0; i < n; i++){
+      boolean ok = !Double.isNaN(positions[2*i]);
+      lat[i] = ok ? positions[2*i] : 0.0;
+      lon[i] = ok ? positions[2*i+1] : 0.0;
+    }
+    new Worldmesh().cal_meshcode_batch(level, lat, lon, 0, n, out, outOff);
+    for(int i = 0; i < n; i++){
+      if(Double.isNaN(positions[2*i])) out[outOff+i] = 0;
+    }
+  }
+
+  private static void exchange(HttpExchange ex, int op) throws IOException {
+    try{
+      Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+      String method = ex.getRequestMethod();
+      if(method.equals("GET")){
+        single(ex, op, query);
+      }else if(method.equals("POST")){
+        batch(ex, op, query);
+      }else{
+        ex.getResponseHeaders().set("Allow", "GET, POST");
+        error(ex, 405, method + " not allowed");
+      }
+    }catch(IllegalArgumentException e){
+      error(ex, 400, e.getMessage());
+    }finally{
+      ex.close();
+    }
+  }
+
+  private static void error(HttpExchange ex, int status, String message) throws IOException {
+    byte[] b = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    ex.sendResponseHeaders(status, b.length);
+    ex.getResponseBody().write(b);
+  }
+
+  private static void single(HttpExchange ex, int op, Map<String, String> query) throws IOException {
+    Request r = new Request(op, query, false, 1);
+    if(r.positions != null){
+      String[] names = op == ENCODE ? new String[]{"lat", "lon"} : new String[]{"lat1", "lon1", "lat2", "lon2"};
+      for(int i = 0; i < names.length; i++) r.positions[i] = number(query, names[i]);
+    }else{
+      String code = query.get("code");
+      if(code == null) throw new IllegalArgumentException("missing parameter code");
+      try{
+        r.codes[0] = Long.parseLong(code.trim());
+      }catch(NumberFormatException e){
+        throw new IllegalArgumentException("code is not a number: " + code);
+      }
+    }
+    r.run(1, true);
+    StringBuilder sb = new StringBuilder();
+    format(r, 0, sb);
+    byte[] b = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    ex.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+    ex.sendResponseHeaders(200, b.length);
+    ex.getResponseBody().write(b);
+  }
+
+  private static double number(Map<String, String> query, String name){
+    String v = query.get(name);
+    if(v == null) throw new IllegalArgumentException("missing parameter " + name);
+    try{
+      return(Double.parseDouble(v.trim()));
+    }catch(NumberFormatException e){
+      throw new IllegalArgumentException(name + " is not a number: " + v);
+    }
+  }
+
+  private static void batch(HttpExchange ex, int op, Map<String, String> query) throws IOException {
+    String type = ex.getRequestHeaders().getFirst("Content-Type");
+    boolean binary = type != null && type.trim().toLowerCase().startsWith(BINARY);
+    // a binary body of known length smaller than a block gets buffers of its size
+    int records = BLOCK;
+    String length = ex.getRequestHeaders().getFirst("Content-Length");
+    if(binary && length != null){
+      long bytes = Long.parseLong(length.trim());
+      int size = 8 * fields(op);
+      if(bytes % size != 0) throw new IllegalArgumentException("body of " + bytes + " bytes is not a whole number of " + size + " byte records");
+      records = (int)Math.max(1, Math.min(BLOCK, bytes / size));
+    }
+    Request r = new Request(op, query, binary, records);
+    InputStream in = ex.getRequestBody();
+    BinaryBlocks bin = binary ? new BinaryBlocks(in, r) : null;
+    TextBlocks text = binary ? null : new TextBlocks(in, r);
+    OutputStream out = null;
+    byte[] outBytes = binary ? new byte[r.records * r.out_bytes()] : null;
+    StringBuilder sb = binary ? null : new StringBuilder();
+    for(boolean first = true;; first = false){
+      int n = binary ? bin.next() : text.next();
+      boolean end = binary ? bin.end : text.end;
+      if(n == 0 && !first) break;
+      r.run(n, first && end && n <= SMALL);
+      if(out == null){
+        ex.getResponseHeaders().set("Content-Type", binary ? BINARY : "text/plain; charset=us-ascii");
+        ex.sendResponseHeaders(200, 0);
+        out = ex.getResponseBody();
+      }
+      if(binary){
+        ByteBuffer b = ByteBuffer.wrap(outBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if(r.outCodes != null){
+          for(int i = 0; i < n * r.out_bytes() / 8; i++) b.putLong(r.outCodes[i]);
+        }else{
+          for(int i = 0; i < n * r.out_bytes() / 8; i++) b.putDouble(r.outValues[i]);
+        }
+        out.write(outBytes, 0, b.position());
+      }else{
+        sb.setLength(0);
+        for(int i = 0; i < n; i++) format(r, i, sb);
+        out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+      }
+      if(end) break;
+    }
+  }
+
+  // result of record i as a line
+  private static void format(Request r, int i, StringBuilder sb){
+    switch(r.op){
+    case ENCODE:
+      sb.append(r.outCodes[i]);
+      break;
+    case NEIGHBOURS:
+      for(int k = 0; k < r.neighbours; k++){
+        if(k > 0) sb.append(',');
+        sb.append(r.outCodes[r.neighbours*i + k]);
+      }
+      break;
+    case DISTANCE:
+      sb.append(r.outValues[i]);
+      break;
+    default:
+      for(int k = 0; k < 4; k++){
+        if(k > 0) sb.append(',');
+        sb.append(r.outValues[4*i + k]);
+      }
+    }
+    sb.append('\n');
+  }
+
+  // records of a binary body, BLOCK at a time
+  private static final class BinaryBlocks {
+    private final InputStream in;
+    private final Request r;
+    private final byte[] buf;
+    boolean end;
+
+    BinaryBlocks(InputStream in, Request r){
+      this.in = in;
+      this.r = r;
+      this.buf = new byte[r.records * r.in_bytes()];
+    }
+
+    // reads the next block into the request; returns its number of records
+    int next() throws IOException {
+      int size = r.in_bytes();
+      int got = in.readNBytes(buf, 0, buf.length);
+      if(got < buf.length) end = true;
+      int n = got / size;
+      ByteBuffer b = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+      if(r.positions != null){
+        for(int i = 0; i < n * r.fields(); i++) r.positions[i] = b.getDouble(8*i);
+      }else{
+        for(int i = 0; i < n; i++) r.codes[i] = b.getLong(8*i);
+      }
+      return(n);
+    }
+  }
+
+  // records of a text body, BLOCK lines at a time
+  private static final class TextBlocks {
+    private final InputStream in;
+    private final Request r;
+    private byte[] buf = new byte[1 << 16];
+    private ByteBuffer wrapped = ByteBuffer.wrap(buf);
+    private int pos;
+    private int lim;
+    private boolean eof;
+    boolean end;
+
+    TextBlocks(InputStream in, Request r){
+      this.in = in;
+      this.r = r;
+    }
+
+    int next() throws IOException {
+      int n = 0;
+      while(n < BLOCK){
+        int e = line_end();
+        if(e < 0) break;
+        parse(n++, pos, Math.min(e, lim));
+        pos = Math.min(e + 1, lim);
+      }
+      if(pos == lim && fill() == 0) end = true;
+      return(n);
+    }
+
+    // end of the line at pos (lim for a last line without a line end), -1 if there is no line left
+    private int line_end() throws IOException {
+      int seen = 0;    // bytes from pos looked at (fill moves pos)
+      for(;;){
+        for(int i = pos + seen; i < lim; i++){
+          if(buf[i] == '\n') return(i);
+        }
+        seen = lim - pos;
+        if(fill() == 0) return(lim > pos ? lim : -1);
+      }
+    }
+
+    // reads more of the body behind lim, moving the unread bytes to the front or growing the
+    // buffer for a long line; returns the number of bytes read
+    private int fill() throws IOException {
+      if(eof) return(0);
+      if(pos > 0){
+        System.arraycopy(buf, pos, buf, 0, lim - pos);
+        lim -= pos;
+        pos = 0;
+      }
+      if(lim == buf.length){
+        buf = Arrays.copyOf(buf, 2 * buf.length);
+        wrapped = ByteBuffer.wrap(buf);
+      }
+      int got = in.read(buf, lim, buf.length - lim);
+      if(got < 0){
+        eof = true;
+        return(0);
+      }
+      lim += got;
+      return(got);
+    }
+
+    // the record of the bytes from to to-1 into record i of the request
+    private void parse(int i, int from, int to){
+      int k = r.fields();
+      int s = from;
+      for(int f = 0; f < k; f++){
+        int e = s;
+        while(e < to && buf[e] != ',') e++;
+        if(r.positions != null){
+          r.positions[k*i + f] = s <= to ? PointIngest.parse_double(wrapped, s, e) : Double.NaN;
+        }else{
+          r.codes[i] = parse_long(buf, s, e);
+        }
+        s = e + 1;
+      }
+    }
+  }
+
+  // the non-negative number written in the bytes from to to-1 (surrounding blanks allowed), 0 if there is none
+  static long parse_long(byte[] b, int from, int to){
+    while(from < to && (b[from] == ' ' || b[from] == '\t' || b[from] == '"')) from++;
+    while(to > from && (b[to-1] == ' ' || b[to-1] == '\t' || b[to-1] == '\r' || b[to-1] == '"')) to--;
+    if(from == to || to - from > 18) return(0);
+    long v = 0;
+    for(int i = from; i < to; i++){
+      if(b[i] < '0' || b[i] > '9') return(0);
+      v = v*10 + (b[i] - '0');
+    }
+    return(v);
+  }
+
+  // parameters of a query string (the last value of a name repeated)
+  private static Map<String, String> query(String raw){
+    Map<String, String> q = new HashMap<>();
+    if(raw == null || raw.isEmpty()) return(q);
+    for(String p : raw.split("&")){
+      int eq = p.indexOf('=');
+      String name = URLDecoder.decode(eq < 0 ? p : p.substring(0, eq), StandardCharsets.UTF_8);
+      q.put(name, eq < 0 ? "" : URLDecoder.decode(p.substring(eq + 1), StandardCharsets.UTF_8));
+    }
+    return(q);
+  }
+
+  private static int level(String v){
+    if(v == null) throw new IllegalArgumentException("missing parameter level");
+    try{
+      int level = Integer.parseInt(v.trim());
+      if(level >= 1 && level <= 7) return(level);
+    }catch(NumberFormatException e){
+      // reported below
+    }
+    throw new IllegalArgumentException("level must be 1 to 7: " + v);
+  }
+
+  private static boolean flag(String v){
+    if(v == null || v.equals("false")) return(false);
+    if(v.equals("true")) return(true);
+    throw new IllegalArgumentException("ext must be true or false: " + v);
+  }
+
+  private static int count(String v){
+    if(v == null || v.equals("8")) return(8);
+    if(v.equals("4")) return(4);
+    throw new IllegalArgumentException("n must be 4 or 8: " + v);
+  }
+
+  // small encode or decode requests of one level (encode) or extension flag (decode) waiting to
+  // be run together
+  private static final class Coalescer {
+    private final int level;        // 1 to 7 : encode at level; 0 : decode
+    private final boolean extension;
+    private final ConcurrentLinkedQueue<Call> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    Coalescer(int level, boolean extension){
+      this.level = level;
+      this.extension = extension;
+    }
+
+    private static final class Call {
+      final Request request;
+      final int n;
+      final Thread thread = Thread.currentThread();
+      volatile boolean done;
+      RuntimeException failure;
+
+      Call(Request request, int n){
+        this.request = request;
+        this.n = n;
+      }
+    }
+
+    // runs the n records of request with the others queued. A thread which finds no batch running
+    // runs one; the others park until their call is done or until the thread which ran the batch
+    // before wakes the head of the queue to run the next one.
+    void submit(Request request, int n){
+      Call call = new Call(request, n);
+      queue.add(call);
+      while(!call.done){
+        if(running.compareAndSet(false, true)){
+          try{
+            run_batch();
+          }finally{
+            running.set(false);
+          }
+          Call head = queue.peek();
+          if(head != null) LockSupport.unpark(head.thread);
+        }else{
+          LockSupport.park(this);
+        }
+      }
+      if(call.failure != null) throw call.failure;
+    }
+
+    private void run_batch(){
+      ArrayList<Call> calls = new ArrayList<>();
+      int total = 0;
+      for(Call c; total < MAX_BATCH && (c = queue.poll()) != null; total += c.n) calls.add(c);
+      RuntimeException failure = null;
+      try{
+        if(level > 0){
+          double[] positions = new double[2 * total];
+          int k = 0;
+          for(Call c : calls){
+            System.arraycopy(c.request.positions, 0, positions, 2*k, 2*c.n);
+            k += c.n;
+          }
+          long[] out = new long[total];
+          encode(level, positions, total, out, 0);
+          k = 0;
+          for(Call c : calls){
+            System.arraycopy(out, k, c.request.outCodes, 0, c.n);
+            k += c.n;
+          }
+        }else{
+          long[] codes = new long[total];
+          int k = 0;
+          for(Call c : calls){
+            System.arraycopy(c.request.codes, 0, codes, k, c.n);
+            k += c.n;
+          }
+          double[] out = new double[4 * total];
+          new Worldmesh().meshcode_to_latlong_grid_batch(codes, 0, total, extension, out, 0);
+          k = 0;
+          for(Call c : calls){
+            System.arraycopy(out, 4*k, c.request.outValues, 0, 4*c.n);
+            k += c.n;
+          }
+        }
+      }catch(RuntimeException e){
+        failure = e;
+      }
+      for(Call c : calls){
+        c.failure = failure;
+        c.done = true;
+        LockSupport.unpark(c.thread);
+      }
+    }
+  }
+}
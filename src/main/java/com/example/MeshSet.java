@@ -0,0 +1,483 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+
+// An immutable set of grid squares of one level, kept as compressed bitmaps.
+//
+// The squares are grouped by 80km square. Inside an 80km square every square of the level has an
+// index, its position among them in increasing code order (10km digits, 1km digits, quadrants and
+// extended 100m digits taken as one mixed radix number), so the squares lying in any coarser square
+// have consecutive indices. Each 80km square keeps its indices in one of three forms, whichever is
+// smallest:
+//
+//   array  : sorted int indices, while they take less room than the bitmap (at most capacity/32)
+//   bitmap : one bit per square of the level (51 kB for the 409,600 125m squares, 80 kB for the
+//            640,000 extended 100m squares of an 80km square)
+//   full   : every square of the 80km square, nothing stored
+//
+// Union, intersection and difference work 80km square by 80km square on the sorted array or 64
+// squares at a time on the bitmap words. The set is exported as mixed-level codes: a coarser square
+// all of whose squares of the level are present is passed as its own code (an 80km, 10km, 1km,
+// 500m or 250m code), which meshcode_to_latlong_grid decodes like any other.
+final class MeshSet {
+  private static final long[] NONE = {};
+  private static final Tile[] EMPTY = {};
+
+  private final int level;
+  private final long[] codes;   // 80km codes, increasing
+  private final Tile[] tiles;   // squares in codes[i]
+  private final long size;
+
+  private MeshSet(int level, long[] codes, Tile[] tiles, int n){
+    this.level = level;
+    this.codes = n == codes.length ? codes : Arrays.copyOf(codes, n);
+    this.tiles = n == tiles.length ? tiles : Arrays.copyOf(tiles, n);
+    long s = 0;
+    for(int i = 0; i < n; i++) s += tiles[i].card;
+    this.size = s;
+  }
+
+  // the squares of one 80km square : array and bits both null for a full 80km square
+  private static final class Tile {
+    final int[] array;
+    final long[] bits;
+    final int card;
+
+    Tile(int[] array, long[] bits, int card){
+      this.array = array;
+      this.bits = bits;
+      this.card = card;
+    }
+
+    boolean full(){
+      return(array == null && bits == null);
+    }
+
+    boolean has(int i){
+      if(array != null) return(Arrays.binarySearch(array, i) >= 0);
+      if(bits != null) return((bits[i >>> 6] & (1L << i)) != 0);
+      return(true);
+    }
+
+    // number of indices from to to-1 present
+    int count(int from, int to){
+      if(array != null) return(lower(array, to) - lower(array, from));
+      if(bits != null) return(count_bits(bits, from, to));
+      return(to - from);
+    }
+
+    // bitmap of the indices, a copy which may be changed
+    long[] bitmap(int capacity){
+      if(bits != null) return(bits.clone());
+      long[] b = new long[words(capacity)];
+      if(array != null){
+        for(int i : array) b[i >>> 6] |= 1L << i;
+      }else{
+        set_bits(b, 0, capacity);
+      }
+      return(b);
+    }
+  }
+
+  // the empty set of level (1 to 6, 7 : extended 100m)
+  public static MeshSet empty(int level){
+    check_level(level);
+    return(new MeshSet(level, NONE, EMPTY, 0));
+  }
+
+  // the set of the squares of level (1 to 6, 7 : extended 100m) given by meshcode[off+i] for i = 0
+  // to len-1 in any order, duplicates allowed. A code of a coarser level stands for all squares of
+  // level lying in it; a code which is not valid or does not contain squares of level (e.g. a 250m
+  // code in a set of extended 100m squares) throws IllegalArgumentException. In a set of extended
+  // 100m squares a 13-digit code is read as an extended 100m code.
+  public static MeshSet of(int level, long[] meshcode, int off, int len){
+    check_level(level);
+    Objects.checkFromIndexSize(off, len, meshcode.length);
+    int[] span = spans(level);
+    // squares of level as 80km code << 20 | index, coarser squares as (80km code << 20 | first index) << 3 | level
+    long[] fine = new long[len];
+    long[] coarse = NONE;
+    int nf = 0, nc = 0;
+    for(int i = 0; i < len; i++){
+      long m = meshcode[off+i];
+      int lv = Worldmesh.meshcode_level(m, level == 7);
+      if(lv == 0 || !Worldmesh.contains_level(lv, level)){
+        throw new IllegalArgumentException(m + " is not a grid square code containing squares of level " + level);
+      }
+      long key = (tile_code(m, lv) << 20) | (long)index(m, lv) * span[lv];
+      if(lv == level){
+        fine[nf++] = key;
+      }else{
+        if(nc == coarse.length) coarse = Arrays.copyOf(coarse, Math.max(16, 2*nc));
+        coarse[nc++] = key << 3 | lv;
+      }
+    }
+    Arrays.sort(fine, 0, nf);
+    Arrays.sort(coarse, 0, nc);
+    int capacity = span[1];
+    long[] codes = new long[16];
+    Tile[] tiles = new Tile[16];
+    int n = 0;
+    int[] idx = new int[Math.min(nf, capacity)];
+    for(int f = 0, c = 0; f < nf || c < nc; ){
+      long code = Math.min(f < nf ? fine[f] >>> 20 : Long.MAX_VALUE, c < nc ? coarse[c] >>> 23 : Long.MAX_VALUE);
+      int k = 0;
+      for(; f < nf && fine[f] >>> 20 == code; f++){
+        int i = (int)(fine[f] & 0xFFFFF);
+        if(k == 0 || idx[k-1] != i) idx[k++] = i;
+      }
+      Tile t;
+      if(c < nc && coarse[c] >>> 23 == code){
+        long[] b = new long[words(capacity)];
+        for(int j = 0; j < k; j++) b[idx[j] >>> 6] |= 1L << idx[j];
+        for(; c < nc && coarse[c] >>> 23 == code; c++){
+          int first = (int)(coarse[c] >>> 3 & 0xFFFFF);
+          set_bits(b, first, first + span[(int)(coarse[c] & 7)]);
+        }
+        t = tile(b, capacity);
+      }else{
+        t = tile(idx, k, capacity);
+      }
+      if(n == codes.length){
+        codes = Arrays.copyOf(codes, 2*n);
+        tiles = Arrays.copyOf(tiles, 2*n);
+      }
+      codes[n] = code;
+      tiles[n++] = t;
+    }
+    return(new MeshSet(level, codes, tiles, n));
+  }
+
+  // level of the squares of the set (1 to 6, 7 : extended 100m)
+  public int level(){
+    return(level);
+  }
+
+  // number of squares of the level in the set
+  public long size(){
+    return(size);
+  }
+
+  public boolean isEmpty(){
+    return(size == 0);
+  }
+
+  // true if the whole grid square meshcode is in the set : a square of the level, a coarser square
+  // all of whose squares of the level are in the set, or a finer square lying in a square of the
+  // set. False for codes which are not valid or do not nest with the level.
+  public boolean contains(long meshcode){
+    int lv = Worldmesh.meshcode_level(meshcode, level == 7);
+    if(lv == 0) return(false);
+    if(!Worldmesh.contains_level(lv, level)){
+      if(!Worldmesh.contains_level(level, lv)) return(false);
+      meshcode /= Worldmesh.POW10[Worldmesh.NDIGITS[lv]-Worldmesh.NDIGITS[level]];
+      lv = level;
+    }
+    int t = Arrays.binarySearch(codes, tile_code(meshcode, lv));
+    if(t < 0) return(false);
+    int n = Worldmesh.meshcode_children_count(lv, level);
+    if(n == 1) return(tiles[t].has(index(meshcode, lv)));
+    int first = index(meshcode, lv) * n;
+    return(tiles[t].count(first, first + n) == n);
+  }
+
+  // squares in this set or in other
+  public MeshSet union(MeshSet other){
+    check_same(other);
+    int capacity = capacity();
+    long[] c = new long[codes.length + other.codes.length];
+    Tile[] t = new Tile[c.length];
+    int n = 0;
+    for(int i = 0, j = 0; i < codes.length || j < other.codes.length; ){
+      if(j == other.codes.length || (i < codes.length && codes[i] < other.codes[j])){
+        c[n] = codes[i];
+        t[n++] = tiles[i++];
+      }else if(i == codes.length || other.codes[j] < codes[i]){
+        c[n] = other.codes[j];
+        t[n++] = other.tiles[j++];
+      }else{
+        c[n] = codes[i];
+        t[n++] = or(tiles[i++], other.tiles[j++], capacity);
+      }
+    }
+    return(new MeshSet(level, c, t, n));
+  }
+
+  // squares in both this set and other
+  public MeshSet intersection(MeshSet other){
+    check_same(other);
+    int capacity = capacity();
+    long[] c = new long[Math.min(codes.length, other.codes.length)];
+    Tile[] t = new Tile[c.length];
+    int n = 0;
+    for(int i = 0, j = 0; i < codes.length && j < other.codes.length; ){
+      if(codes[i] < other.codes[j]){
+        i++;
+      }else if(other.codes[j] < codes[i]){
+        j++;
+      }else{
+        Tile r = and(tiles[i], other.tiles[j], capacity);
+        if(r != null){
+          c[n] = codes[i];
+          t[n++] = r;
+        }
+        i++;
+        j++;
+      }
+    }
+    return(new MeshSet(level, c, t, n));
+  }
+
+  // squares in this set and not in other
+  public MeshSet difference(MeshSet other){
+    check_same(other);
+    int capacity = capacity();
+    long[] c = new long[codes.length];
+    Tile[] t = new Tile[c.length];
+    int n = 0;
+    for(int i = 0, j = 0; i < codes.length; i++){
+      while(j < other.codes.length && other.codes[j] < codes[i]) j++;
+      Tile r = j < other.codes.length && other.codes[j] == codes[i] ? andnot(tiles[i], other.tiles[j], capacity) : tiles[i];
+      if(r != null){
+        c[n] = codes[i];
+        t[n++] = r;
+      }
+    }
+    return(new MeshSet(level, c, t, n));
+  }
+
+  // passes the set as the fewest grid square codes of mixed levels to sink : every coarser square
+  // all of whose squares of the level are in the set is passed as its own code instead. The codes
+  // do not overlap and come 80km square by 80km square in increasing order, and inside an 80km
+  // square in increasing order of their first square of the level.
+  public void forEach(LongConsumer sink){
+    int[] span = spans(level);
+    for(int i = 0; i < codes.length; i++) emit(tiles[i], codes[i], 1, 0, span, sink);
+  }
+
+  // the codes passed by forEach
+  public long[] meshcodes(){
+    Codes res = new Codes(Math.max(16, codes.length));
+    forEach(res);
+    return(Arrays.copyOf(res.codes, res.n));
+  }
+
+  private static final class Codes implements LongConsumer {
+    long[] codes;
+    int n;
+
+    Codes(int capacity){
+      codes = new long[capacity];
+    }
+
+    @Override
+    public void accept(long meshcode){
+      if(n == codes.length) codes = Arrays.copyOf(codes, 2*n);
+      codes[n++] = meshcode;
+    }
+  }
+
+  private void emit(Tile t, long meshcode, int lv, int first, int[] span, LongConsumer sink){
+    int k = t.count(first, first + span[lv]);
+    if(k == 0) return;
+    if(k == span[lv]){
+      sink.accept(meshcode);
+      return;
+    }
+    int next = Worldmesh.next_level(lv, level);
+    long scale = Worldmesh.POW10[Worldmesh.NDIGITS[next]-Worldmesh.NDIGITS[lv]];
+    for(int j = 0; j < Worldmesh.CHILDREN[next]; j++){
+      emit(t, meshcode*scale + Worldmesh.child_suffix(next, j), next, first + j*span[next], span, sink);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o){
+    if(!(o instanceof MeshSet)) return(false);
+    MeshSet s = (MeshSet)o;
+    if(s.level != level || s.size != size || !Arrays.equals(s.codes, codes)) return(false);
+    // the form of a tile follows from its squares, so equal tiles have equal arrays
+    for(int i = 0; i < tiles.length; i++){
+      if(!Arrays.equals(s.tiles[i].array, tiles[i].array) || !Arrays.equals(s.tiles[i].bits, tiles[i].bits)) return(false);
+    }
+    return(true);
+  }
+
+  @Override
+  public int hashCode(){
+    return(31 * Arrays.hashCode(codes) + Long.hashCode(size) + level);
+  }
+
+  private void check_same(MeshSet other){
+    if(other.level != level) throw new IllegalArgumentException("sets of level " + level + " and " + other.level);
+  }
+
+  private int capacity(){
+    return(Worldmesh.meshcode_children_count(1, level));
+  }
+
+  private static void check_level(int level){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+  }
+
+  // squares of level in one square of each coarser level
+  private static int[] spans(int level){
+    int[] span = new int[8];
+    for(int lv = 1; lv != 0; lv = Worldmesh.next_level(lv, level)) span[lv] = Worldmesh.meshcode_children_count(lv, level);
+    return(span);
+  }
+
+  private static long tile_code(long meshcode, int lv){
+    return(meshcode / Worldmesh.POW10[Worldmesh.NDIGITS[lv]-6]);
+  }
+
+  // index of the square meshcode among the squares of its level lv in its 80km square
+  private static int index(long meshcode, int lv){
+    int i = 0, scale = 1;
+    for(; lv > 1; lv = Worldmesh.parent_level(lv)){
+      long d = Worldmesh.POW10[Worldmesh.NDIGITS[lv]-Worldmesh.NDIGITS[Worldmesh.parent_level(lv)]];
+      int s = (int)(meshcode % d);
+      meshcode /= d;
+      i += Worldmesh.child_index(lv, s) * scale;
+      scale *= Worldmesh.CHILDREN[lv];
+    }
+    return(i);
+  }
+
+  // the tile of the bitmap b, null if it is empty
+  private static Tile tile(long[] b, int capacity){
+    int card = 0;
+    for(long w : b) card += Long.bitCount(w);
+    if(card == 0) return(null);
+    if(card == capacity) return(new Tile(null, null, card));
+    if(card > capacity / 32) return(new Tile(null, b, card));
+    int[] a = new int[card];
+    int n = 0;
+    for(int w = 0; w < b.length; w++){
+      for(long x = b[w]; x != 0; x &= x - 1) a[n++] = (w << 6) + Long.numberOfTrailingZeros(x);
+    }
+    return(new Tile(a, null, card));
+  }
+
+  // the tile of the sorted distinct indices a[0] to a[n-1], null if n is 0
+  private static Tile tile(int[] a, int n, int capacity){
+    if(n == 0) return(null);
+    if(n == capacity) return(new Tile(null, null, n));
+    if(n > capacity / 32){
+      long[] b = new long[words(capacity)];
+      for(int j = 0; j < n; j++) b[a[j] >>> 6] |= 1L << a[j];
+      return(new Tile(null, b, n));
+    }
+    return(new Tile(Arrays.copyOf(a, n), null, n));
+  }
+
+  private static Tile or(Tile a, Tile b, int capacity){
+    if(a.full()) return(a);
+    if(b.full()) return(b);
+    if(a.array != null && b.array != null){
+      int[] r = new int[a.card + b.card];
+      int n = 0, i = 0, j = 0;
+      while(i < a.card && j < b.card){
+        int x = a.array[i], y = b.array[j];
+        r[n++] = Math.min(x, y);
+        if(x <= y) i++;
+        if(y <= x) j++;
+      }
+      while(i < a.card) r[n++] = a.array[i++];
+      while(j < b.card) r[n++] = b.array[j++];
+      return(tile(r, n, capacity));
+    }
+    if(a.bits == null){
+      Tile t = a;
+      a = b;
+      b = t;
+    }
+    long[] r = a.bits.clone();
+    if(b.array != null){
+      for(int i : b.array) r[i >>> 6] |= 1L << i;
+    }else{
+      for(int w = 0; w < r.length; w++) r[w] |= b.bits[w];
+    }
+    return(tile(r, capacity));
+  }
+
+  private static Tile and(Tile a, Tile b, int capacity){
+    if(a.full()) return(b);
+    if(b.full()) return(a);
+    if(b.array != null && (a.array == null || b.card < a.card)){
+      Tile t = a;
+      a = b;
+      b = t;
+    }
+    if(a.array != null){
+      int[] r = new int[a.card];
+      int n = 0;
+      for(int i : a.array){
+        if(b.has(i)) r[n++] = i;
+      }
+      return(tile(r, n, capacity));
+    }
+    long[] r = a.bits.clone();
+    for(int w = 0; w < r.length; w++) r[w] &= b.bits[w];
+    return(tile(r, capacity));
+  }
+
+  private static Tile andnot(Tile a, Tile b, int capacity){
+    if(b.full()) return(null);
+    if(a.array != null){
+      int[] r = new int[a.card];
+      int n = 0;
+      for(int i : a.array){
+        if(!b.has(i)) r[n++] = i;
+      }
+      return(tile(r, n, capacity));
+    }
+    long[] r = a.bitmap(capacity);
+    if(b.array != null){
+      for(int i : b.array) r[i >>> 6] &= ~(1L << i);
+    }else{
+      for(int w = 0; w < r.length; w++) r[w] &= ~b.bits[w];
+    }
+    return(tile(r, capacity));
+  }
+
+  private static int words(int capacity){
+    return((capacity + 63) >>> 6);
+  }
+
+  // first position in the sorted a with a value at least x
+  private static int lower(int[] a, int x){
+    int lo = 0, hi = a.length;
+    while(lo < hi){
+      int mid = (lo + hi) >>> 1;
+      if(a[mid] < x) lo = mid + 1;
+      else hi = mid;
+    }
+    return(lo);
+  }
+
+  // number of bits from to to-1 set in b
+  private static int count_bits(long[] b, int from, int to){
+    int w0 = from >>> 6, w1 = (to - 1) >>> 6;
+    long m0 = -1L << from, m1 = -1L >>> -to;
+    if(w0 == w1) return(Long.bitCount(b[w0] & m0 & m1));
+    int n = Long.bitCount(b[w0] & m0);
+    for(int w = w0 + 1; w < w1; w++) n += Long.bitCount(b[w]);
+    return(n + Long.bitCount(b[w1] & m1));
+  }
+
+  // sets the bits from to to-1 of b
+  private static void set_bits(long[] b, int from, int to){
+    int w0 = from >>> 6, w1 = (to - 1) >>> 6;
+    long m0 = -1L << from, m1 = -1L >>> -to;
+    if(w0 == w1){
+      b[w0] |= m0 & m1;
+      return;
+    }
+    b[w0] |= m0;
+    for(int w = w0 + 1; w < w1; w++) b[w] = -1L;
+    b[w1] |= m1;
+  }
+}
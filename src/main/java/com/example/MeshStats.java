@@ -0,0 +1,303 @@
+package com.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Opt-in counters, latency histograms and Flight Recorder events for the encoder, the decoder
+// and Vincenty.
+//
+// Instrumentation is switched on by starting the JVM with -Dworldmesh.stats=true. ENABLED is a
+// static final, so when it is off the JIT drops every hook (a test of a constant) and the hot
+// paths run as without instrumentation.
+//
+// When it is on, every call counts in a LongAdder of its operation and level (LongAdder keeps one
+// cell per contending thread, so threads encoding in parallel do not share a cache line) and
+// failed calls count separately: an encoded position out of range or NaN, a code the decoder
+// does not take, a NaN distance. One call in worldmesh.stats.sample (a power of two, 64 by
+// default, 1 : every call) is timed with System.nanoTime, its time added to the total and counted
+// in a histogram of power-of-two buckets (bucket i : 2^i to 2^(i+1)-1 nanoseconds); two calls to
+// nanoTime would cost more than an encode itself.
+//
+// Flight Recorder events (category Worldmesh) are committed for failed calls (InvalidInput), for
+// Vincenty calls which take more than worldmesh.stats.vincentyIterations iterations (10 by
+// default), fall back to the bracketed solver or give NaN (Vincenty), and for timed calls slower
+// than worldmesh.stats.slowNanos (1 ms by default, SlowCall). They cost nothing unless a recording
+// has them enabled.
+final class MeshStats {
+  static final boolean ENABLED = Boolean.getBoolean("worldmesh.stats");
+  private static final int SAMPLE_MASK = Integer.highestOneBit(Math.max(1, Integer.getInteger("worldmesh.stats.sample", 64))) - 1;
+  private static final int SLOW_ITERATIONS = Integer.getInteger("worldmesh.stats.vincentyIterations", 10);
+  private static final long SLOW_NANOS = Long.getLong("worldmesh.stats.slowNanos", 1000000L);
+
+  // operations
+  public static final int ENCODE = 0;
+  public static final int DECODE = 1;
+  public static final int VINCENTY = 2;
+  static final String[] OPERATIONS = {"encode", "decode", "Vincenty"};
+  // levels 1 to 6, 7 (extended 100m); 0 : all levels at once (cal_meshcode_all), no level
+  // (Vincenty) or a code of no level
+  static final int LEVELS = 8;
+  static final int BUCKETS = 40;
+
+  private static final Counters[] COUNTERS = ENABLED ? counters() : null;
+
+  private MeshStats(){
+  }
+
+  private static Counters[] counters(){
+    Counters[] c = new Counters[OPERATIONS.length * LEVELS];
+    for(int i = 0; i < c.length; i++) c[i] = new Counters();
+    return(c);
+  }
+
+  private static final class Counters {
+    final LongAdder calls = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder timed = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    Counters(){
+      for(int i = 0; i < BUCKETS; i++) histogram[i] = new LongAdder();
+    }
+  }
+
+  // start of a call : System.nanoTime() if the call is timed, 0 if not
+  static long start(){
+    return((ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0 ? System.nanoTime() : 0L);
+  }
+
+  // end of a call of operation at level started at t0 (see start)
+  static void end(int operation, int level, long t0, boolean failed){
+    Counters c = COUNTERS[operation * LEVELS + level];
+    c.calls.increment();
+    if(failed) c.failures.increment();
+    if(t0 != 0L){
+      long d = Math.max(0L, System.nanoTime() - t0);
+      c.timed.increment();
+      c.nanos.add(d);
+      c.histogram[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(d | 1))].increment();
+      if(d >= SLOW_NANOS){
+        SlowCall e = new SlowCall();
+        if(e.isEnabled()){
+          e.operation = OPERATIONS[operation];
+          e.level = level;
+          e.nanos = d;
+          e.commit();
+        }
+      }
+    }
+  }
+
+  static void encode(int level, long t0, double latitude, double longitude){
+    boolean failed = !(Math.abs(latitude) <= 90.0 && Math.abs(longitude) <= 180.0);
+    end(ENCODE, level, t0, failed);
+    if(failed){
+      InvalidInput e = new InvalidInput();
+      if(e.isEnabled()){
+        e.operation = OPERATIONS[ENCODE];
+        e.latitude = latitude;
+        e.longitude = longitude;
+        e.commit();
+      }
+    }
+  }
+
+  static void decode(long meshcode, boolean extension, long t0, boolean ok){
+    // the code has been decoded, so its number of digits gives its level
+    int n = ok ? Worldmesh.ndigits(meshcode) : 0;
+    end(DECODE, n == 13 && extension ? 7 : n < Worldmesh.LEVEL_OF_DIGITS.length ? Worldmesh.LEVEL_OF_DIGITS[n] : 0, t0, !ok);
+    if(!ok){
+      InvalidInput e = new InvalidInput();
+      if(e.isEnabled()){
+        e.operation = OPERATIONS[DECODE];
+        e.meshcode = meshcode;
+        e.extension = extension;
+        e.commit();
+      }
+    }
+  }
+
+  // iterations : steps of the Vincenty iteration (0 for the cases solved explicitly)
+  static void vincenty(long t0, double latitude1, double longitude1, double latitude2, double longitude2,
+                       double distance, int iterations, boolean bracketed){
+    boolean failed = Double.isNaN(distance);
+    end(VINCENTY, 0, t0, failed);
+    if(failed || bracketed || iterations > SLOW_ITERATIONS){
+      Vincenty e = new Vincenty();
+      if(e.isEnabled()){
+        e.latitude1 = latitude1;
+        e.longitude1 = longitude1;
+        e.latitude2 = latitude2;
+        e.longitude2 = longitude2;
+        e.distance = distance;
+        e.iterations = iterations;
+        e.bracketed = bracketed;
+        e.commit();
+      }
+    }
+  }
+
+  // counters at the time of the call (all zero when instrumentation is off)
+  public static Snapshot snapshot(){
+    Snapshot s = new Snapshot();
+    if(!ENABLED) return(s);
+    for(int i = 0; i < COUNTERS.length; i++){
+      Counters c = COUNTERS[i];
+      s.calls[i] = c.calls.sum();
+      s.failures[i] = c.failures.sum();
+      s.timed[i] = c.timed.sum();
+      s.nanos[i] = c.nanos.sum();
+      for(int b = 0; b < BUCKETS; b++) s.histogram[i][b] = c.histogram[b].sum();
+    }
+    return(s);
+  }
+
+  // sets every counter to zero (calls running meanwhile may be counted or not)
+  public static void reset(){
+    if(!ENABLED) return;
+    for(Counters c : COUNTERS){
+      c.calls.reset();
+      c.failures.reset();
+      c.timed.reset();
+      c.nanos.reset();
+      for(LongAdder h : c.histogram) h.reset();
+    }
+  }
+
+  // Counters of every operation (ENCODE, DECODE, VINCENTY) and level (0 to 7) read at one time
+  // (each counter is read once; counters of calls running meanwhile need not agree).
+  public static final class Snapshot {
+    private final long[] calls = new long[OPERATIONS.length * LEVELS];
+    private final long[] failures = new long[OPERATIONS.length * LEVELS];
+    private final long[] timed = new long[OPERATIONS.length * LEVELS];
+    private final long[] nanos = new long[OPERATIONS.length * LEVELS];
+    private final long[][] histogram = new long[OPERATIONS.length * LEVELS][BUCKETS];
+
+    private Snapshot(){
+    }
+
+    private static int index(int operation, int level){
+      if(operation < 0 || operation >= OPERATIONS.length) throw new IllegalArgumentException("unknown operation: " + operation);
+      if(level < 0 || level >= LEVELS) throw new IllegalArgumentException("level must be 0 to 7: " + level);
+      return(operation * LEVELS + level);
+    }
+
+    public long calls(int operation, int level){
+      return(calls[index(operation, level)]);
+    }
+
+    public long failures(int operation, int level){
+      return(failures[index(operation, level)]);
+    }
+
+    // number of timed calls and their mean time in nanoseconds (NaN if none was timed)
+    public long timed(int operation, int level){
+      return(timed[index(operation, level)]);
+    }
+
+    public double mean_nanos(int operation, int level){
+      int i = index(operation, level);
+      return(timed[i] == 0 ? Double.NaN : (double)nanos[i] / timed[i]);
+    }
+
+    // timed calls taking 2^bucket to 2^(bucket+1)-1 nanoseconds for bucket = 0 to BUCKETS-1
+    public long[] histogram(int operation, int level){
+      return(histogram[index(operation, level)].clone());
+    }
+
+    // upper end of the histogram bucket holding the fraction q (0 to 1) of the timed calls, in
+    // nanoseconds (NaN if none was timed)
+    public double percentile_nanos(int operation, int level, double q){
+      int i = index(operation, level);
+      if(timed[i] == 0) return(Double.NaN);
+      long total = 0;
+      for(long h : histogram[i]) total += h;
+      long rank = (long)Math.ceil(Math.max(0.0, Math.min(1.0, q)) * total);
+      long seen = 0;
+      for(int b = 0; b < BUCKETS; b++){
+        seen += histogram[i][b];
+        if(seen >= Math.max(1, rank)) return((double)((1L << (b + 1)) - 1));
+      }
+      return(Double.POSITIVE_INFINITY);
+    }
+
+    // one line per operation and level with calls : calls, failures, timed calls, mean and p99 time
+    @Override
+    public String toString(){
+      StringBuilder sb = new StringBuilder();
+      for(int op = 0; op < OPERATIONS.length; op++){
+        for(int level = 0; level < LEVELS; level++){
+          int i = op * LEVELS + level;
+          if(calls[i] == 0) continue;
+          sb.append(OPERATIONS[op]).append(" level ").append(level)
+            .append(" calls ").append(calls[i]).append(" failures ").append(failures[i])
+            .append(" timed ").append(timed[i]);
+          if(timed[i] > 0){
+            sb.append(String.format(" mean %.1f ns p99 < %.0f ns", mean_nanos(op, level), percentile_nanos(op, level, 0.99)));
+          }
+          sb.append('\n');
+        }
+      }
+      return(sb.toString());
+    }
+  }
+
+  @Name("com.example.worldmesh.InvalidInput")
+  @Label("Invalid Input")
+  @Category("Worldmesh")
+  @Description("A position out of range passed to the encoder or a code the decoder does not take")
+  static final class InvalidInput extends Event {
+    @Label("Operation")
+    String operation;
+    @Label("Latitude")
+    double latitude;
+    @Label("Longitude")
+    double longitude;
+    @Label("Grid Square Code")
+    long meshcode;
+    @Label("Extension")
+    boolean extension;
+  }
+
+  @Name("com.example.worldmesh.Vincenty")
+  @Label("Vincenty")
+  @Category("Worldmesh")
+  @Description("A geodesic which took many iterations, fell back to the bracketed solver or gave NaN")
+  static final class Vincenty extends Event {
+    @Label("Latitude 1")
+    double latitude1;
+    @Label("Longitude 1")
+    double longitude1;
+    @Label("Latitude 2")
+    double latitude2;
+    @Label("Longitude 2")
+    double longitude2;
+    @Label("Distance")
+    double distance;
+    @Label("Iterations")
+    int iterations;
+    @Label("Bracketed")
+    boolean bracketed;
+  }
+
+  @Name("com.example.worldmesh.SlowCall")
+  @Label("Slow Call")
+  @Category("Worldmesh")
+  @Description("A timed call slower than worldmesh.stats.slowNanos")
+  static final class SlowCall extends Event {
+    @Label("Operation")
+    String operation;
+    @Label("Level")
+    int level;
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+  }
+}
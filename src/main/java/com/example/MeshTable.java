@@ -0,0 +1,375 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+// A file of grid square codes of one level in increasing order with columns of double values, for
+// sparse layers where a raster (MeshRaster) would be mostly empty.
+//
+// The codes are stored in blocks of BLOCK codes. A block holds its number of codes and the length
+// of its codes, the first code and the differences to the following codes as varints (7 bits per
+// byte, low bits first), and then the values column by column as doubles; neighbouring codes of a
+// dense area differ by a few units, so a code takes 1 to 3 bytes. An index of the first code and
+// the file position of every block follows the blocks, and the header is written last:
+//
+//   0  : "WMTABLE1"
+//   8  : version (1), level (1 to 6, 7 : extended 100m), number of columns, codes per block
+//   24 : number of codes (long), file position of the index (long), number of blocks
+//   44 : reserved (0)
+//   64 : blocks
+//
+// all little-endian. A reader loads the index (16 bytes per block) and maps the blocks, so a point
+// lookup is a binary search of the index and a scan of one block, and a range of codes (e.g. all
+// the 125m squares in a 1km square, which are consecutive codes) is read block by block through a
+// Cursor without decoding the rest of the file. Tables are combined by walking their cursors side
+// by side (merge).
+final class MeshTable {
+  private static final byte[] MAGIC = "WMTABLE1".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int HEADER = 64;
+  static final int BLOCK = 128;
+  private static final long SEGMENT = 1L << 30;   // largest mapped segment
+
+  private final int level;
+  private final int columns;
+  private final long size;
+  private final long[] first;         // first code of each block
+  private final ByteBuffer[] block;   // mapped segment holding each block
+  private final int[] position;       // position of each block in its segment
+
+  private MeshTable(int level, int columns, long size, long[] first, ByteBuffer[] block, int[] position){
+    this.level = level;
+    this.columns = columns;
+    this.size = size;
+    this.first = first;
+    this.block = block;
+    this.position = position;
+  }
+
+  // loads the index of the table file and maps its blocks read-only
+  public static MeshTable open(Path file) throws IOException {
+    try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+      ByteBuffer h = read(ch, 0, HEADER);
+      for(int i = 0; i < MAGIC.length; i++){
+        if(h.get(i) != MAGIC[i]) throw new IOException(file + ": not a table file");
+      }
+      if(h.getInt(8) != VERSION) throw new IOException(file + ": unknown table version " + h.getInt(8));
+      int level = h.getInt(12), columns = h.getInt(16), blockSize = h.getInt(20);
+      long size = h.getLong(24), indexPos = h.getLong(32);
+      int blocks = h.getInt(40);
+      if(level < 1 || level > 7 || columns < 0 || blockSize != BLOCK || size < 0 || blocks != (size + BLOCK - 1) / BLOCK
+         || indexPos < HEADER || indexPos + 16L*blocks != ch.size()){
+        throw new IOException(file + ": bad table header");
+      }
+      ByteBuffer index = read(ch, indexPos, 16*blocks);
+      long[] first = new long[blocks];
+      long[] offset = new long[blocks + 1];
+      for(int b = 0; b < blocks; b++){
+        first[b] = index.getLong(16*b);
+        offset[b] = index.getLong(16*b + 8);
+      }
+      offset[blocks] = indexPos;
+      // map runs of whole blocks of up to SEGMENT bytes
+      ByteBuffer[] block = new ByteBuffer[blocks];
+      int[] position = new int[blocks];
+      for(int b = 0; b < blocks; ){
+        int e = b + 1;
+        while(e < blocks && offset[e+1] - offset[b] <= SEGMENT) e++;
+        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, offset[b], offset[e] - offset[b]);
+        m.order(ByteOrder.LITTLE_ENDIAN);
+        for(int k = b; k < e; k++){
+          block[k] = m;
+          position[k] = (int)(offset[k] - offset[b]);
+        }
+        b = e;
+      }
+      return(new MeshTable(level, columns, size, first, block, position));
+    }
+  }
+
+  private static ByteBuffer read(FileChannel ch, long pos, int n) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+    while(b.hasRemaining()){
+      if(ch.read(b, pos + b.position()) < 0) throw new IOException("unexpected end of file");
+    }
+    return(b);
+  }
+
+  public int level(){
+    return(level);
+  }
+
+  public int columns(){
+    return(columns);
+  }
+
+  // number of codes
+  public long size(){
+    return(size);
+  }
+
+  // true if the table holds meshcode
+  public boolean contains(long meshcode){
+    Cursor c = cursor(meshcode, meshcode);
+    return(c.next());
+  }
+
+  // value in column of meshcode, NaN if the table does not hold meshcode
+  public double get(long meshcode, int column){
+    Objects.checkIndex(column, columns);
+    Cursor c = cursor(meshcode, meshcode);
+    return(c.next() ? c.value(column) : Double.NaN);
+  }
+
+  // all values of meshcode into out[off] to out[off+columns-1]; false (and out is left as it is) if
+  // the table does not hold meshcode
+  public boolean get(long meshcode, double[] out, int off){
+    Objects.checkFromIndexSize(off, columns, out.length);
+    Cursor c = cursor(meshcode, meshcode);
+    if(!c.next()) return(false);
+    for(int j = 0; j < columns; j++) out[off+j] = c.value(j);
+    return(true);
+  }
+
+  // cursor over all codes
+  public Cursor cursor(){
+    return(cursor(Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  // cursor over the codes from lo to hi
+  public Cursor cursor(long lo, long hi){
+    return(new Cursor(lo, hi));
+  }
+
+  // cursor over the codes lying in the grid square meshcode (e.g. the 125m codes of a 1km code);
+  // empty if meshcode does not contain squares of the level of the table
+  public Cursor descendants(long meshcode, boolean extension){
+    long[] range = new long[2];
+    if(!new Worldmesh().meshcode_descendant_range(meshcode, extension, level, range, 0)) return(cursor(1, 0));
+    return(cursor(range[0], range[1]));
+  }
+
+  // Walks the codes of a range in increasing order : next() moves to the first code and then to
+  // each following one, and meshcode() and value(column) read the current code.
+  public final class Cursor {
+    private final long lo;
+    private final long hi;
+    private int b;          // block
+    private ByteBuffer buf;
+    private int pos;        // position of the next varint
+    private int values;     // position of the values of the block
+    private int n;          // codes in the block
+    private int k;          // index of the code in the block
+    private long code;
+    private boolean done;
+
+    private Cursor(long lo, long hi){
+      this.lo = lo;
+      this.hi = hi;
+      if(first.length == 0 || lo > hi){
+        done = true;
+        return;
+      }
+      // last block starting at or before lo
+      int i = Arrays.binarySearch(first, lo);
+      load(i >= 0 ? i : Math.max(0, -i - 2));
+    }
+
+    private void load(int b){
+      this.b = b;
+      buf = block[b];
+      int p = position[b];
+      n = buf.getInt(p);
+      pos = p + 8;
+      values = pos + buf.getInt(p + 4);
+      k = -1;
+    }
+
+    public boolean next(){
+      while(!done){
+        if(k + 1 == n){
+          if(b + 1 == first.length){
+            done = true;
+            break;
+          }
+          load(b + 1);
+        }
+        long v = 0;
+        for(int shift = 0; ; shift += 7){
+          byte x = buf.get(pos++);
+          v |= (long)(x & 0x7F) << shift;
+          if(x >= 0) break;
+        }
+        code = k == -1 ? v : code + v;
+        k++;
+        if(code < lo) continue;
+        if(code > hi){
+          done = true;
+          break;
+        }
+        return(true);
+      }
+      return(false);
+    }
+
+    public long meshcode(){
+      return(code);
+    }
+
+    public double value(int column){
+      return(buf.getDouble(values + 8*(column*n + k)));
+    }
+  }
+
+  // writes a table holding the codes of all tables (of one level and number of columns) to file;
+  // the values of a code held by several tables are added. The tables are read through cursors in
+  // one pass.
+  public static void merge(Path file, MeshTable... tables) throws IOException {
+    if(tables.length == 0) throw new IllegalArgumentException("no tables");
+    int level = tables[0].level, columns = tables[0].columns;
+    Cursor[] c = new Cursor[tables.length];
+    boolean[] live = new boolean[tables.length];
+    for(int t = 0; t < tables.length; t++){
+      if(tables[t].level != level || tables[t].columns != columns){
+        throw new IllegalArgumentException("tables of different levels or columns");
+      }
+      c[t] = tables[t].cursor();
+      live[t] = c[t].next();
+    }
+    double[] v = new double[columns];
+    try(Builder out = new Builder(file, level, columns)){
+      while(true){
+        long min = Long.MAX_VALUE;
+        for(int t = 0; t < c.length; t++){
+          if(live[t] && c[t].meshcode() < min) min = c[t].meshcode();
+        }
+        if(min == Long.MAX_VALUE) break;
+        Arrays.fill(v, 0.0);
+        for(int t = 0; t < c.length; t++){
+          if(!live[t] || c[t].meshcode() != min) continue;
+          for(int j = 0; j < columns; j++) v[j] += c[t].value(j);
+          live[t] = c[t].next();
+        }
+        out.add(min, v, 0);
+      }
+    }
+  }
+
+  // Writes a table file from codes given in increasing order. Blocks are written as they fill, so
+  // the table is never held in memory; close writes the index and the header, so a file whose
+  // writing was not finished is not taken by open.
+  public static final class Builder implements Closeable {
+    private final FileChannel ch;
+    private final int level;
+    private final int columns;
+    private final long[] codes = new long[BLOCK];
+    private final double[] values;
+    private final ByteBuffer out;
+    private int n;
+    private long size;
+    private long last;
+    private long pos = HEADER;
+    private long[] index = new long[64];   // first code and position of each block
+    private int blocks;
+    private boolean closed;
+
+    // a table of codes of level (1 to 6, 7 : extended 100m) with columns values each
+    public Builder(Path file, int level, int columns) throws IOException {
+      if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+      if(columns < 0) throw new IllegalArgumentException("columns must not be negative: " + columns);
+      this.level = level;
+      this.columns = columns;
+      values = new double[BLOCK * columns];
+      out = ByteBuffer.allocate(8 + 10*BLOCK + 8*BLOCK*columns).order(ByteOrder.LITTLE_ENDIAN);
+      ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    // adds meshcode with the single value of a table of one column
+    public void add(long meshcode, double value) throws IOException {
+      if(columns != 1) throw new IllegalArgumentException("the table has " + columns + " columns");
+      values[n] = value;
+      add(meshcode);
+    }
+
+    // adds meshcode with the values value[off] to value[off+columns-1]
+    public void add(long meshcode, double[] value, int off) throws IOException {
+      Objects.checkFromIndexSize(off, columns, value.length);
+      for(int j = 0; j < columns; j++) values[j*BLOCK + n] = value[off+j];
+      add(meshcode);
+    }
+
+    // meshcode must be a code of the level greater than the last one added, otherwise
+    // IllegalArgumentException is thrown (and nothing is added)
+    private void add(long meshcode) throws IOException {
+      if(closed) throw new IllegalStateException("closed");
+      if(Worldmesh.meshcode_level(meshcode, level == 7) != level){
+        throw new IllegalArgumentException(meshcode + " is not a grid square code of level " + level);
+      }
+      if(size > 0 && meshcode <= last) throw new IllegalArgumentException("codes must be increasing: " + meshcode + " after " + last);
+      codes[n++] = meshcode;
+      last = meshcode;
+      size++;
+      if(n == BLOCK) flush();
+    }
+
+    private void flush() throws IOException {
+      if(n == 0) return;
+      out.clear();
+      out.position(8);
+      for(int i = 0; i < n; i++){
+        long v = i == 0 ? codes[0] : codes[i] - codes[i-1];
+        while((v & ~0x7FL) != 0){
+          out.put((byte)(v | 0x80));
+          v >>>= 7;
+        }
+        out.put((byte)v);
+      }
+      out.putInt(0, n).putInt(4, out.position() - 8);
+      for(int j = 0; j < columns; j++){
+        for(int i = 0; i < n; i++) out.putDouble(values[j*BLOCK + i]);
+      }
+      out.flip();
+      if(2*blocks + 2 > index.length) index = Arrays.copyOf(index, 2*index.length);
+      index[2*blocks] = codes[0];
+      index[2*blocks+1] = pos;
+      blocks++;
+      write(out);
+      n = 0;
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+      while(b.hasRemaining()) pos += ch.write(b, pos);
+    }
+
+    // writes the last block, the index and the header
+    @Override
+    public void close() throws IOException {
+      if(closed) return;
+      try(FileChannel c = ch){
+        flush();
+        closed = true;
+        long indexPos = pos;
+        ByteBuffer b = ByteBuffer.allocate(16*blocks).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < 2*blocks; i++) b.putLong(index[i]);
+        b.flip();
+        write(b);
+        ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        h.put(MAGIC).putInt(VERSION).putInt(level).putInt(columns).putInt(BLOCK);
+        h.putLong(size).putLong(indexPos).putInt(blocks);
+        h.clear();
+        pos = 0;
+        write(h);
+        c.force(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.example;
+
+import java.util.Objects;
+import java.util.function.LongConsumer;
+
+// Grid squares of one level crossed by trajectories (polylines of points), found by walking the
+// segments through the grid instead of encoding points along them.
+//
+// A segment is a straight line in latitude and longitude. In the cell space of Worldmesh (global
+// row latitude*LEVEL_ROWS/90, global column longitude*LEVEL_COLS/180) it is walked square by
+// square (Amanatides and Woo): from the square it is in, the position along the segment at which
+// it reaches the next row and the next column boundary is worked out from the end points, and it
+// steps into the row or the column it reaches first, or diagonally when it passes through a corner
+// (both boundaries within 1e-9 of the segment). Each square costs a few additions and divisions
+// and one Worldmesh.cell, whatever the length of the segment, and a square whose corner the
+// segment clips is found like any other.
+//
+// The squares of a trajectory are emitted in the order they are crossed, once per visit: a square
+// spanning several segments is emitted once, a square the trajectory leaves and comes back to is
+// emitted again, and a square touched at a single point only (a corner passed exactly, a boundary
+// the trajectory starts on and leaves at once) is not emitted. A segment whose longitudes differ by
+// more than 180 degrees crosses the 180th meridian.
+//
+// A position along a trajectory is an index into the vertex arrays with a fraction: p lies the
+// fraction p - floor(p) of the way from vertex floor(p) to vertex floor(p)+1, so times recorded at
+// the vertices are interpolated at p directly. Lengths are in metres along the straight line,
+// with the radii of curvature of the WGS84 ellipsoid at the middle latitude of each segment (within
+// 0.1% of the geodesic for segments up to 100km long outside the polar regions).
+final class MeshTrace {
+  private static final double E2 = Worldmesh.WGS84_F*(2.0 - Worldmesh.WGS84_F);
+  private static final double CORNER = 1e-9;     // fraction of a segment within which two crossings meet at a corner
+
+  public interface Visitor {
+    // trajectory crossed meshcode from position enter to position exit, travelling length metres in it
+    void accept(int trajectory, long meshcode, double enter, double exit, double length);
+  }
+
+  private final int level;
+  private final int rows;
+  private final int cols;
+  private final Visitor visitor;
+  private final LongConsumer sink;
+  // visit not yet emitted (extended while the trajectory stays in the square)
+  private boolean pending;
+  private int trajectory;
+  private int py;
+  private long px;
+  private double enter;
+  private double exit;
+  private double length;
+  private boolean emitted;
+
+  private MeshTrace(int level, Visitor visitor, LongConsumer sink){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    this.level = level;
+    this.rows = Worldmesh.LEVEL_ROWS[level];
+    this.cols = Worldmesh.LEVEL_COLS[level];
+    this.visitor = visitor;
+    this.sink = sink;
+  }
+
+  // squares of level crossed by the trajectory (latitude[off+i], longitude[off+i]) (i = 0 to len-1)
+  static void trace(int level, double[] latitude, double[] longitude, int off, int len, LongConsumer sink){
+    Objects.requireNonNull(sink);
+    Objects.checkFromIndexSize(off, len, latitude.length);
+    Objects.checkFromIndexSize(off, len, longitude.length);
+    new MeshTrace(level, null, sink).walk(0, latitude, longitude, off, off + len);
+  }
+
+  // squares of level crossed by trajectories first to first+count-1, trajectory t running from
+  // vertex start[t] to vertex start[t+1]-1 (an empty trajectory emits nothing)
+  static void trace(int level, double[] latitude, double[] longitude, int[] start, int first, int count, Visitor visitor){
+    Objects.requireNonNull(visitor);
+    Objects.checkFromIndexSize(first, count + 1, start.length);
+    for(int t = first; t < first + count; t++){
+      if(start[t] > start[t+1]) throw new IllegalArgumentException("trajectory " + t + " ends before it starts: " + start[t] + ", " + start[t+1]);
+    }
+    if(count > 0){
+      Objects.checkFromToIndex(start[first], start[first + count], latitude.length);
+      Objects.checkFromToIndex(start[first], start[first + count], longitude.length);
+    }
+    MeshTrace trace = new MeshTrace(level, visitor, null);
+    for(int t = first; t < first + count; t++) trace.walk(t, latitude, longitude, start[t], start[t+1]);
+  }
+
+  // vertices from to to-1
+  private void walk(int t, double[] latitude, double[] longitude, int from, int to){
+    if(from == to) return;
+    trajectory = t;
+    emitted = false;
+    double lat0 = check(latitude[from], longitude[from], from);
+    double long0 = longitude[from];
+    double fy0 = lat0 * rows / 90.0;
+    double fx0 = long0 * cols / 180.0;
+    int y = (int)Math.max(-rows, Math.min(rows-1, Math.floor(fy0)));
+    long x = (long)Math.floor(fx0);
+    for(int i = from + 1; i < to; i++){
+      double lat1 = check(latitude[i], longitude[i], i);
+      // longitudes are unwrapped along the trajectory, so columns run on past the 180th meridian
+      double d = longitude[i] - (long0 - 360.0*Math.floor((long0 + 180.0) / 360.0));
+      double long1 = long0 + (d > 180.0 ? d - 360.0 : d < -180.0 ? d + 360.0 : d);
+      double fy1 = lat1 * rows / 90.0;
+      double fx1 = long1 * cols / 180.0;
+      double dy = fy1 - fy0, dx = fx1 - fx0;
+      double seg = segment_length(lat0, lat1, long1 - long0);
+      double tp = 0.0;
+      for(;;){
+        double ty = dy > 0 ? (y + 1 - fy0) / dy : dy < 0 ? (y - fy0) / dy : Double.POSITIVE_INFINITY;
+        double tx = dx > 0 ? (x + 1 - fx0) / dx : dx < 0 ? (x - fx0) / dx : Double.POSITIVE_INFINITY;
+        double tn = Math.max(tp, Math.min(ty, tx));
+        if(tn >= 1.0) break;
+        visit(y, x, i - 1 + tp, i - 1 + tn, (tn - tp) * seg);
+        // a corner passed within rounding error is a corner, not two sliver squares
+        boolean corner = Math.abs(ty - tx) <= CORNER;
+        if(ty <= tx || (corner && ty < 1.0)) y += dy > 0 ? 1 : -1;
+        if(tx <= ty || (corner && tx < 1.0)) x += dx > 0 ? 1 : -1;
+        tp = tn;
+      }
+      visit(y, x, i - 1 + tp, i, (1.0 - tp) * seg);
+      lat0 = lat1;
+      long0 = long1;
+      fy0 = fy1;
+      fx0 = fx1;
+    }
+    if(pending){
+      flush();
+    }else if(!emitted){
+      // a single point, or a trajectory which never leaves a point
+      pending = true;
+      py = y;
+      px = x;
+      enter = exit = to - 1;
+      length = 0.0;
+      flush();
+    }
+  }
+
+  private static double check(double latitude, double longitude, int i){
+    if(!(Math.abs(latitude) <= 90.0 && Math.abs(longitude) <= 180.0)){
+      throw new IllegalArgumentException("vertex " + i + " out of range: " + latitude + ", " + longitude);
+    }
+    return(latitude);
+  }
+
+  // the trajectory was in the square (y, x) from position p0 to p1; visits of no length are dropped
+  // and a visit of the square of the visit before it extends that one
+  private void visit(int y, long x, double p0, double p1, double len){
+    if(!(p1 > p0)) return;
+    if(pending && py == y && px == x){
+      exit = p1;
+      length += len;
+      return;
+    }
+    if(pending) flush();
+    pending = true;
+    py = y;
+    px = x;
+    enter = p0;
+    exit = p1;
+    length = len;
+  }
+
+  private void flush(){
+    pending = false;
+    emitted = true;
+    long code = Worldmesh.cell(level, py, px, cols);
+    if(sink != null){
+      sink.accept(code);
+    }else{
+      visitor.accept(trajectory, code, enter, exit, length);
+    }
+  }
+
+  // length in metres of the straight line from latitude lat0 to lat1 over dlong degrees of longitude
+  private static double segment_length(double lat0, double lat1, double dlong){
+    double phi = (lat0 + lat1) / 360.0 * Math.PI;
+    double s = Math.sin(phi);
+    double w = 1.0 - E2*s*s;
+    double n = Worldmesh.WGS84_A / Math.sqrt(w);      // prime vertical radius
+    double m = n * (1.0 - E2) / w;                    // meridian radius
+    return(Math.hypot(m * (lat1 - lat0), n * Math.cos(phi) * dlong) / 180.0 * Math.PI);
+  }
+}
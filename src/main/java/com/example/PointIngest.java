@@ -0,0 +1,264 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Encodes a file of points into grid square codes at disk speed.
+//
+// The input is memory-mapped in chunks of about CHUNK bytes (cut at line ends for CSV) and each
+// chunk is parsed straight from the mapped bytes, encoded with Worldmesh.cal_meshcode_batch and
+// formatted into one output buffer in a task of the common ForkJoin pool. The calling thread keeps
+// up to 2 tasks per worker in flight and writes their buffers to the output channel in input order,
+// so the output has exactly one record per input record.
+//
+// csv : one point per line, latitude and longitude in the first two comma separated fields;
+//       one code per line is written
+// bin : pairs of little-endian doubles (latitude, longitude), 16 bytes per point; one
+//       little-endian long per point is written
+//
+// A record which is not a pair of numbers within latitude [-90, 90] and longitude [-180, 180]
+// (e.g. a header line, an empty line) gives 0.
+final class PointIngest {
+  static final int CHUNK = 1 << 25;
+
+  private PointIngest(){
+  }
+
+  // encodes in into out at level (1 to 6, 7 : extended 100m); returns the number of records
+  static long run(int level, Path in, Path out, boolean binary) throws IOException {
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int window = 2 * pool.getParallelism();
+    ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+    long records = 0;
+    try(FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+        FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+      long size = src.size();
+      if(binary && size % 16 != 0) throw new IOException(in + ": size " + size + " is not a multiple of 16 bytes");
+      long start = 0;
+      try{
+        while(start < size){
+          long end = binary ? Math.min(size, start + CHUNK) : line_end(src, Math.min(size, start + CHUNK), size);
+          MappedByteBuffer chunk = src.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+          pending.add(pool.submit(() -> binary ? encode_bin(level, chunk) : encode_csv(level, chunk)));
+          start = end;
+          if(pending.size() >= window) records += write(dst, pending.poll());
+        }
+        while(!pending.isEmpty()) records += write(dst, pending.poll());
+      }finally{
+        for(Future<Block> f : pending) f.cancel(false);
+      }
+    }
+    return(records);
+  }
+
+  // position just after the first line end at or after pos (size if there is none)
+  static long line_end(FileChannel src, long pos, long size) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(4096);
+    while(pos < size){
+      b.clear();
+      int n = src.read(b, pos);
+      if(n < 0) break;
+      for(int i = 0; i < n; i++){
+        if(b.get(i) == '\n') return(pos + i + 1);
+      }
+      pos += n;
+    }
+    return(size);
+  }
+
+  // output of one chunk
+  private static final class Block {
+    final ByteBuffer bytes;
+    final int records;
+
+    Block(ByteBuffer bytes, int records){
+      this.bytes = bytes;
+      this.records = records;
+    }
+  }
+
+  private static long write(FileChannel dst, Future<Block> f) throws IOException {
+    Block b = result(f);
+    while(b.bytes.hasRemaining()) dst.write(b.bytes);
+    return(b.records);
+  }
+
+  // the result of a task, its unchecked exception rethrown as it is
+  static <T> T result(Future<T> f) throws IOException {
+    try{
+      return(f.get());
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted", e);
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static Block encode_bin(int level, MappedByteBuffer chunk){
+    chunk.order(ByteOrder.LITTLE_ENDIAN);
+    int n = chunk.capacity() / 16;
+    double[] lat = new double[n];
+    double[] lon = new double[n];
+    for(int i = 0; i < n; i++){
+      lat[i] = chunk.getDouble(16*i);
+      lon[i] = chunk.getDouble(16*i + 8);
+    }
+    long[] codes = encode(level, lat, lon, n);
+    ByteBuffer out = ByteBuffer.allocate(8*n).order(ByteOrder.LITTLE_ENDIAN);
+    for(int i = 0; i < n; i++) out.putLong(8*i, codes[i]);
+    return(new Block(out, n));
+  }
+
+  private static Block encode_csv(int level, MappedByteBuffer chunk){
+    int size = chunk.capacity();
+    double[] lat = new double[Math.max(16, size / 24)];
+    double[] lon = new double[lat.length];
+    int n = 0;
+    int s = 0;
+    while(s < size){
+      int e = s;
+      while(e < size && chunk.get(e) != '\n') e++;
+      if(n == lat.length){
+        lat = Arrays.copyOf(lat, 2*n);
+        lon = Arrays.copyOf(lon, 2*n);
+      }
+      int c1 = s;
+      while(c1 < e && chunk.get(c1) != ',') c1++;
+      int c2 = c1 + 1;
+      while(c2 < e && chunk.get(c2) != ',') c2++;
+      lat[n] = c1 < e ? parse_double(chunk, s, c1) : Double.NaN;
+      lon[n] = c1 < e ? parse_double(chunk, c1+1, Math.min(c2, e)) : Double.NaN;
+      n++;
+      s = e + 1;
+    }
+    long[] codes = encode(level, lat, lon, n);
+    ByteBuffer out = ByteBuffer.allocate(20*n);
+    byte[] digits = new byte[20];
+    for(int i = 0; i < n; i++){
+      long v = codes[i];
+      int k = digits.length;
+      do{
+        digits[--k] = (byte)('0' + v % 10);
+        v /= 10;
+      }while(v > 0);
+      out.put(digits, k, digits.length - k).put((byte)'\n');
+    }
+    out.flip();
+    return(new Block(out, n));
+  }
+
+  // codes of the n points, 0 for points which are not within latitude [-90, 90] and longitude [-180, 180]
+  static long[] encode(int level, double[] lat, double[] lon, int n){
+    int bad = 0;
+    for(int i = 0; i < n; i++){
+      if(!(Math.abs(lat[i]) <= 90.0 && Math.abs(lon[i]) <= 180.0)) bad++;
+    }
+    int[] skip = new int[bad];
+    bad = 0;
+    for(int i = 0; i < n; i++){
+      if(!(Math.abs(lat[i]) <= 90.0 && Math.abs(lon[i]) <= 180.0)){
+        skip[bad++] = i;
+        lat[i] = lon[i] = 0.0;
+      }
+    }
+    long[] codes = new long[n];
+    new Worldmesh().cal_meshcode_batch(level, lat, lon, 0, n, codes, 0);
+    for(int i : skip) codes[i] = 0;
+    return(codes);
+  }
+
+  // the number written in the bytes from to to-1 (surrounding blanks, quotes and a carriage return
+  // allowed), NaN if there is none. Up to 15 significant digits and a decimal exponent within 22
+  // are converted exactly with one multiplication or division (Clinger's fast path), which gives the
+  // same double as Double.parseDouble; anything else is handed to Double.parseDouble.
+  static double parse_double(ByteBuffer b, int from, int to){
+    while(from < to && blank(b.get(from))) from++;
+    while(to > from && blank(b.get(to-1))) to--;
+    if(from == to) return(Double.NaN);
+    int i = from;
+    boolean negative = false;
+    if(b.get(i) == '-' || b.get(i) == '+'){
+      negative = b.get(i) == '-';
+      i++;
+    }
+    long m = 0;
+    int digits = 0;      // significant digits in m
+    int exp = 0;
+    boolean any = false;
+    boolean point = false;
+    for(; i < to; i++){
+      int c = b.get(i);
+      if(c >= '0' && c <= '9'){
+        any = true;
+        if(digits < 18){
+          if(m > 0 || c != '0'){
+            m = m*10 + (c - '0');
+            digits++;
+          }
+          if(point) exp--;
+        }else{
+          digits++;
+          if(!point) exp++;
+        }
+      }else if(c == '.' && !point){
+        point = true;
+      }else{
+        break;
+      }
+    }
+    if(!any) return(slow(b, from, to));
+    if(i < to){
+      if(b.get(i) != 'e' && b.get(i) != 'E') return(slow(b, from, to));
+      i++;
+      boolean eneg = false;
+      if(i < to && (b.get(i) == '-' || b.get(i) == '+')){
+        eneg = b.get(i) == '-';
+        i++;
+      }
+      if(i == to || to - i > 4) return(slow(b, from, to));
+      int e = 0;
+      for(; i < to; i++){
+        int c = b.get(i);
+        if(c < '0' || c > '9') return(slow(b, from, to));
+        e = e*10 + (c - '0');
+      }
+      exp += eneg ? -e : e;
+    }
+    if(digits > 15 || exp < -22 || exp > 22) return(slow(b, from, to));
+    double v = exp < 0 ? m / POW10[-exp] : m * POW10[exp];
+    return(negative ? -v : v);
+  }
+
+  private static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static boolean blank(byte c){
+    return(c == ' ' || c == '\t' || c == '\r' || c == '"');
+  }
+
+  private static double slow(ByteBuffer b, int from, int to){
+    byte[] s = new byte[to - from];
+    for(int i = 0; i < s.length; i++) s[i] = b.get(from + i);
+    try{
+      return(Double.parseDouble(new String(s, StandardCharsets.US_ASCII)));
+    }catch(NumberFormatException e){
+      return(Double.NaN);
+    }
+  }
+}
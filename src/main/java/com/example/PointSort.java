@@ -0,0 +1,445 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+// Sorts a file of points by grid square, so that later passes over the squares (per-square sums,
+// lookups in tables keyed by code) read the points of each square together in one sequential
+// sweep instead of jumping around in the order the points were recorded.
+//
+// The input (csv or bin, as for PointIngest) is memory-mapped in chunks, each chunk parsed and
+// encoded in a task of the common ForkJoin pool, and the chunks are collected into runs of about
+// memory bytes of input. A run is sorted in memory by key with a parallel LSD radix sort of (key,
+// record) pairs, one pass per byte of the key which is not the same in every key, and formatted
+// into the output in parallel segments written in order. An input of one run is written straight
+// to the output; otherwise every run goes to a temporary file next to the output and the runs are
+// merged (k-way, with a heap of the heads of the runs). The sort is stable: the points of one
+// square keep their input order, which is their time order for a GPS log.
+//
+// key : the code itself (by 80km square, then down the hierarchy), or with zorder the key of
+//       MeshKey, which also keeps squares on either side of an 80km or 10km boundary together
+//
+// csv : each point line written as "code,line" (a carriage return at the end of the line dropped)
+// bin : 24 bytes per point : the code as a little-endian long, then the 16 bytes of the point
+//
+// Records which are not points (see PointIngest) are left out. A run keeps about 3 times its
+// input size on the heap (about 80 bytes per point).
+final class PointSort {
+  // bytes of input per run with Main sort
+  static final long MEMORY = Long.getLong("worldmesh.sort.memory", Runtime.getRuntime().maxMemory() / 8);
+  private static final int SEGMENT = 1 << 16;     // points formatted per output task
+  private static final int RADIX = 256;
+
+  private PointSort(){
+  }
+
+  // sorts the points of in into out by the squares of level (1 to 6, 7 : extended 100m), in runs
+  // of about memory bytes of input; returns the number of points written
+  static long run(int level, boolean zorder, Path in, Path out, boolean binary, long memory) throws IOException {
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    if(memory < 1) throw new IllegalArgumentException("memory must be positive: " + memory);
+    // at most 2^30 csv lines of 4 bytes, so that a run is indexed by int
+    long runBytes = Math.min(memory, 1L << 32);
+    long chunkBytes = Math.min(PointIngest.CHUNK, runBytes);
+    if(binary) chunkBytes = Math.max(16, chunkBytes & ~15L);
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    List<Path> runs = new ArrayList<>();
+    long records = 0;
+    try{
+      try(FileChannel src = FileChannel.open(in, StandardOpenOption.READ)){
+        long size = src.size();
+        if(binary && size % 16 != 0) throw new IOException(in + ": size " + size + " is not a multiple of 16 bytes");
+        long start = 0;
+        do{
+          List<Future<Chunk>> parts = new ArrayList<>();
+          long limit = start + runBytes;
+          try{
+            while(start < size && start < limit){
+              long end = Math.min(size, start + chunkBytes);
+              if(!binary) end = PointIngest.line_end(src, end, size);
+              MappedByteBuffer chunk = src.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+              parts.add(pool.submit(() -> Chunk.parse(level, zorder, binary, chunk)));
+              start = end;
+            }
+            Chunk[] chunks = new Chunk[parts.size()];
+            long n = 0;
+            for(int i = 0; i < chunks.length; i++){
+              chunks[i] = PointIngest.result(parts.get(i));
+              n += chunks[i].n;
+            }
+            long[] keys = new long[(int)n];
+            long[] refs = new long[(int)n];
+            int k = 0;
+            for(int i = 0; i < chunks.length; i++){
+              System.arraycopy(chunks[i].keys, 0, keys, k, chunks[i].n);
+              for(int j = 0; j < chunks[i].n; j++) refs[k+j] = (long)i << 32 | j;
+              k += chunks[i].n;
+            }
+            sort(keys, refs, k);
+            if(runs.isEmpty() && start >= size){
+              write(pool, out, chunks, keys, refs, k, binary, false);
+            }else{
+              Path run = Files.createTempFile(out.toAbsolutePath().getParent(), "worldmesh-sort", ".run");
+              runs.add(run);
+              write(pool, run, chunks, keys, refs, k, binary, true);
+            }
+            records += k;
+          }finally{
+            for(Future<Chunk> f : parts) f.cancel(false);
+          }
+        }while(start < size);
+      }
+      if(!runs.isEmpty()) merge(runs, out);
+    }finally{
+      for(Path run : runs) Files.deleteIfExists(run);
+    }
+    return(records);
+  }
+
+  // codes of the points latitude[off+i], longitude[off+i] (i = 0 to len-1) in the order of their
+  // keys into out[outOff] to out[outOff+len-1], and the index of each point (into latitude[] and
+  // longitude[]) into order[outOff] to order[outOff+len-1]; points of one square keep their order
+  static void sort(Worldmesh wm, int level, boolean zorder, double[] latitude, double[] longitude, int off, int len,
+                   long[] out, int[] order, int outOff){
+    Objects.checkFromIndexSize(outOff, len, out.length);
+    Objects.checkFromIndexSize(outOff, len, order.length);
+    long[] codes = new long[len];
+    wm.cal_meshcode_batch(level, latitude, longitude, off, len, codes, 0);
+    long[] keys = codes;
+    if(zorder){
+      keys = new long[len];
+      for(int i = 0; i < len; i++) keys[i] = MeshKey.key(codes[i], level == 7);
+    }
+    long[] refs = new long[len];
+    for(int i = 0; i < len; i++) refs[i] = i;
+    sort(keys, refs, len);
+    for(int i = 0; i < len; i++){
+      int j = (int)refs[i];
+      order[outOff+i] = off + j;
+      out[outOff+i] = codes == keys ? keys[i] : codes[j];
+    }
+  }
+
+  // the points of one chunk of input which are points, with their codes and keys
+  private static final class Chunk {
+    final ByteBuffer bytes;
+    final int n;
+    final int[] from;       // bytes from[i] to to[i]-1 of bytes hold point i
+    final int[] to;
+    final long[] codes;
+    final long[] keys;
+
+    private Chunk(ByteBuffer bytes, int n, int[] from, int[] to, long[] codes, long[] keys){
+      this.bytes = bytes;
+      this.n = n;
+      this.from = from;
+      this.to = to;
+      this.codes = codes;
+      this.keys = keys;
+    }
+
+    static Chunk parse(int level, boolean zorder, boolean binary, MappedByteBuffer chunk){
+      int size = chunk.capacity();
+      int cap = binary ? size / 16 : Math.max(16, size / 24);
+      double[] lat = new double[cap];
+      double[] lon = new double[cap];
+      int[] from = new int[cap];
+      int[] to = new int[cap];
+      int n = 0;
+      if(binary){
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+        for(; n < cap; n++){
+          from[n] = 16*n;
+          to[n] = 16*n + 16;
+          lat[n] = chunk.getDouble(16*n);
+          lon[n] = chunk.getDouble(16*n + 8);
+        }
+      }else{
+        int s = 0;
+        while(s < size){
+          int e = s;
+          while(e < size && chunk.get(e) != '\n') e++;
+          if(n == lat.length){
+            lat = Arrays.copyOf(lat, 2*n);
+            lon = Arrays.copyOf(lon, 2*n);
+            from = Arrays.copyOf(from, 2*n);
+            to = Arrays.copyOf(to, 2*n);
+          }
+          int c1 = s;
+          while(c1 < e && chunk.get(c1) != ',') c1++;
+          int c2 = c1 + 1;
+          while(c2 < e && chunk.get(c2) != ',') c2++;
+          lat[n] = c1 < e ? PointIngest.parse_double(chunk, s, c1) : Double.NaN;
+          lon[n] = c1 < e ? PointIngest.parse_double(chunk, c1+1, Math.min(c2, e)) : Double.NaN;
+          from[n] = s;
+          to[n] = e > s && chunk.get(e-1) == '\r' ? e-1 : e;
+          n++;
+          s = e + 1;
+        }
+      }
+      long[] codes = PointIngest.encode(level, lat, lon, n);
+      // drop the records which are not points
+      int m = 0;
+      for(int i = 0; i < n; i++){
+        if(codes[i] == 0) continue;
+        codes[m] = codes[i];
+        from[m] = from[i];
+        to[m] = to[i];
+        m++;
+      }
+      long[] keys = new long[m];
+      for(int i = 0; i < m; i++) keys[i] = zorder ? MeshKey.key(codes[i], level == 7) : codes[i];
+      return(new Chunk(chunk, m, from, to, codes, keys));
+    }
+  }
+
+  // Sorts keys[0] to keys[n-1] (which must not be negative) into increasing order, moving refs[i]
+  // along with keys[i] and keeping the order of equal keys: one counting pass per byte, skipping
+  // the bytes which are the same in every key. Above Worldmesh.BATCH_THRESHOLD keys a pass counts
+  // and moves the keys of up to 4 parts per worker as ForkJoin tasks, each part moving its keys to
+  // the places following those of the parts before it.
+  static void sort(long[] keys, long[] refs, int n){
+    long and = -1, or = 0;
+    for(int i = 0; i < n; i++){
+      and &= keys[i];
+      or |= keys[i];
+    }
+    long differ = and ^ or;
+    int parts = (int)Math.min(4L * ForkJoinPool.getCommonPoolParallelism(), n / Worldmesh.BATCH_THRESHOLD);
+    Radix r = new Radix(keys, refs, n, Math.max(1, parts));
+    for(int shift = 0; shift < 64; shift += 8){
+      if((differ >>> shift & 0xFF) != 0) r.pass(shift);
+    }
+    if(r.keys != keys){
+      System.arraycopy(r.keys, 0, keys, 0, n);
+      System.arraycopy(r.refs, 0, refs, 0, n);
+    }
+  }
+
+  private static final class Radix {
+    long[] keys;
+    long[] refs;
+    long[] nextKeys;
+    long[] nextRefs;
+    final int n;
+    final int parts;
+    final int[][] count;
+    int shift;
+
+    Radix(long[] keys, long[] refs, int n, int parts){
+      this.keys = keys;
+      this.refs = refs;
+      this.nextKeys = new long[n];
+      this.nextRefs = new long[n];
+      this.n = n;
+      this.parts = parts;
+      this.count = new int[parts][RADIX];
+    }
+
+    void pass(int shift){
+      this.shift = shift;
+      run(false);
+      // place of the first key of each byte value in each part
+      int at = 0;
+      for(int b = 0; b < RADIX; b++){
+        for(int p = 0; p < parts; p++){
+          int c = count[p][b];
+          count[p][b] = at;
+          at += c;
+        }
+      }
+      run(true);
+      long[] t = keys; keys = nextKeys; nextKeys = t;
+      t = refs; refs = nextRefs; nextRefs = t;
+    }
+
+    private void run(boolean move){
+      if(parts == 1) part(0, move);
+      else new Parts(this, 0, parts, move).invoke();
+    }
+
+    void part(int p, boolean move){
+      int a = (int)((long)n * p / parts), b = (int)((long)n * (p+1) / parts);
+      int[] c = count[p];
+      if(!move){
+        Arrays.fill(c, 0);
+        for(int i = a; i < b; i++) c[(int)(keys[i] >>> shift) & 0xFF]++;
+        return;
+      }
+      for(int i = a; i < b; i++){
+        int j = c[(int)(keys[i] >>> shift) & 0xFF]++;
+        nextKeys[j] = keys[i];
+        nextRefs[j] = refs[i];
+      }
+    }
+  }
+
+  // counts (or moves) the keys of parts p0 to p1-1
+  private static final class Parts extends RecursiveAction {
+    private final Radix radix;
+    private final int p0;
+    private final int p1;
+    private final boolean move;
+
+    Parts(Radix radix, int p0, int p1, boolean move){
+      this.radix = radix;
+      this.p0 = p0;
+      this.p1 = p1;
+      this.move = move;
+    }
+
+    @Override
+    protected void compute(){
+      if(p1 - p0 == 1){
+        radix.part(p0, move);
+        return;
+      }
+      int half = (p0 + p1) >>> 1;
+      invokeAll(new Parts(radix, p0, half, move), new Parts(radix, half, p1, move));
+    }
+  }
+
+  // writes the n sorted points of chunks to path, formatted in segments of SEGMENT points in tasks of
+  // pool; a record of a run file is the key, the length of the output record and the output record
+  private static void write(ForkJoinPool pool, Path path, Chunk[] chunks, long[] keys, long[] refs, int n,
+                            boolean binary, boolean run) throws IOException {
+    int window = 2 * pool.getParallelism();
+    ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+    try(FileChannel dst = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+      try{
+        for(int a = 0; a < n; a += SEGMENT){
+          int from = a, to = Math.min(n, a + SEGMENT);
+          pending.add(pool.submit(() -> format(chunks, keys, refs, from, to, binary, run)));
+          if(pending.size() >= window) write(dst, PointIngest.result(pending.poll()));
+        }
+        while(!pending.isEmpty()) write(dst, PointIngest.result(pending.poll()));
+      }finally{
+        for(Future<ByteBuffer> f : pending) f.cancel(false);
+      }
+    }
+  }
+
+  private static void write(FileChannel dst, ByteBuffer b) throws IOException {
+    while(b.hasRemaining()) dst.write(b);
+  }
+
+  private static ByteBuffer format(Chunk[] chunks, long[] keys, long[] refs, int a, int b, boolean binary, boolean run){
+    int size = 0;
+    for(int i = a; i < b; i++){
+      Chunk c = chunks[(int)(refs[i] >>> 32)];
+      int j = (int)refs[i];
+      size += (run ? 12 : 0) + (binary ? 24 : 21 + c.to[j] - c.from[j] + 1);
+    }
+    ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    byte[] digits = new byte[20];
+    for(int i = a; i < b; i++){
+      Chunk c = chunks[(int)(refs[i] >>> 32)];
+      int j = (int)refs[i];
+      long v = c.codes[j];
+      if(binary){
+        if(run) out.putLong(keys[i]).putInt(24);
+        out.putLong(v).putLong(c.bytes.getLong(c.from[j])).putLong(c.bytes.getLong(c.from[j] + 8));
+        continue;
+      }
+      int k = digits.length;
+      do{
+        digits[--k] = (byte)('0' + v % 10);
+        v /= 10;
+      }while(v > 0);
+      if(run) out.putLong(keys[i]).putInt(digits.length - k + 1 + c.to[j] - c.from[j] + 1);
+      out.put(digits, k, digits.length - k).put((byte)',');
+      for(int p = c.from[j]; p < c.to[j]; p++) out.put(c.bytes.get(p));
+      out.put((byte)'\n');
+    }
+    out.flip();
+    return(out);
+  }
+
+  // merges the run files into out; equal keys are taken from the earlier run first
+  private static void merge(List<Path> runs, Path out) throws IOException {
+    PriorityQueue<Cursor> heads = new PriorityQueue<>((x, y) -> x.key != y.key ? Long.compare(x.key, y.key) : Integer.compare(x.run, y.run));
+    List<Cursor> open = new ArrayList<>();
+    try(FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+      for(int i = 0; i < runs.size(); i++){
+        Cursor c = new Cursor(FileChannel.open(runs.get(i), StandardOpenOption.READ), i);
+        open.add(c);
+        if(c.next()) heads.add(c);
+      }
+      ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+      while(!heads.isEmpty()){
+        Cursor c = heads.poll();
+        if(buf.remaining() < c.len){
+          buf.flip();
+          write(dst, buf);
+          buf.clear();
+        }
+        if(c.len > buf.capacity()) write(dst, ByteBuffer.wrap(c.record, 0, c.len));
+        else buf.put(c.record, 0, c.len);
+        if(c.next()) heads.add(c);
+      }
+      buf.flip();
+      write(dst, buf);
+    }finally{
+      for(Cursor c : open) c.src.close();
+    }
+  }
+
+  // the current record of a run file
+  private static final class Cursor {
+    final FileChannel src;
+    final int run;
+    private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    long key;
+    byte[] record = new byte[64];
+    int len;
+
+    Cursor(FileChannel src, int run){
+      this.src = src;
+      this.run = run;
+      buf.limit(0);
+    }
+
+    // moves to the next record; false at the end of the run
+    boolean next() throws IOException {
+      if(!fill(12)){
+        if(buf.hasRemaining()) throw new IOException("truncated run file");
+        return(false);
+      }
+      key = buf.getLong();
+      len = buf.getInt();
+      if(record.length < len) record = new byte[Math.max(len, 2*record.length)];
+      for(int k = 0; k < len; ){
+        if(!fill(1)) throw new IOException("truncated run file");
+        int m = Math.min(len - k, buf.remaining());
+        buf.get(record, k, m);
+        k += m;
+      }
+      return(true);
+    }
+
+    // true if at least need bytes are buffered
+    private boolean fill(int need) throws IOException {
+      if(buf.remaining() >= need) return(true);
+      buf.compact();
+      while(buf.position() < need && src.read(buf) >= 0){
+      }
+      buf.flip();
+      return(buf.remaining() >= need);
+    }
+  }
+}
@@ -22,10 +22,11 @@ package com.example;//
 // E-mail: ahsato@yokohama-cu.ac.jp
 // TEL: +81-45-787-2208
 //
-// Three types of methods are defined in this class library.
+// Four types of methods are defined in this class library.
 // 1. calculate representative geographical position(s) (latitude, longitude) of a grid square from a grid square code
 // 2. calculate a grid square code from a geographical position (latitude, longitude)
 // 3. calculate geodesic distance and size of grid square (representative lengths and area)
+// 4. find neighbouring, enclosing and enclosed grid squares of a grid square code, and the grid squares covering a region
 //
 // 1.
 //
@@ -41,6 +42,8 @@ package com.example;//
 // : calculate sourthern eastern geographic position of the grid (latitude, longitude) from meshcode
 // meshcode_to_latlong_grid(meshcode, extension=false)
 // : calculate northern western and sourthern eastern geographic positions of the grid (latitude0, longitude0, latitude1, longitude1) from meshcode
+// meshcode_to_latlong_grid(meshcode, extension, out)
+// : same as above but writes (latitude0, longitude0, latitude1, longitude1) into out[0] to out[3] (or into the given Worldmesh) without allocation
 //
 // 2.
 //
@@ -63,6 +66,17 @@ package com.example;//
 // cal_meshcode_ex100(latitude,longitude)
 // : calculate an extended 100m grid square code (13 digits) from a geographical position (latitude, longitude) - 3 arc-second for latitude and 4.5 arc-second for longitude 
 //
+// cal_meshcode_all(latitude,longitude,out)
+// : calculate the grid square codes of all levels (80km to 125m and extended 100m) from a geographical position (latitude, longitude) in one pass into out[0] to out[6]
+//
+// cal_meshcode_level(level,latitude,longitude) and meshcode_to_latlong_grid_level(level,meshcode,out,off)
+// : the same for a level given as a MeshLevel, such as the 50m and 10m squares of the extended 100m square (MeshLevel.EX50, MeshLevel.EX10)
+//
+// cal_meshcode_batch(level,latitude[],longitude[],off,len,out[],outOff)
+// : calculate the grid square codes of level 1 to 6 (7 : extended 100m) for columns of geographical positions; large ranges run in parallel
+// meshcode_to_latlong_grid_batch(meshcode[],off,len,extension,out[],outOff)
+// : calculate (latitude0, longitude0, latitude1, longitude1) for a column of meshcodes into out[] (4 values per code); large ranges run in parallel
+//
 // Structure of the world grid square code with compatibility to JIS X0410
 // A : area code (1 digit) A takes 1 to 8
 // ABBBBB : 80km grid square code (40 arc-minutes for latitude, 1 arc-degree for longitude) (6 digits)
@@ -73,6 +87,9 @@ package com.example;//
 // ABBBBBCCDDEFG : 125m grid square code (3.75 arc-seconds for latitude, 5.625 arc-seconds for longitude) (13 digits)
 // ABBBBBCCDDEHH : Extended 100m grid square code (3 arc-seconds for latitude, 4.5 arc-seconds for longitude) (13 digits)
 //
+// The levels are described as data in MeshLevel (the division of each level's parent square and the
+// numbering of its digits), and the encoder, the decoder and the integer conversions are loops over them.
+//
 // 3.
 //
 // Calculate geodesic distance and size of world grid square
@@ -83,11 +100,74 @@ package com.example;//
 //
 // Vincenty(latitude1, longitude1, latitude2, longitude)
 // : calculate geodesitc distance between two points (latitude1, longitude1) and (latitude2, longitude2) placed on the WGS84 Earth ellipsoid based on the Vincenty's formulae (1975)
+//   nearly antipodal points, where the Vincenty iteration does not converge reliably, are solved for the azimuth instead (Karney 2013); every input takes a bounded number of steps
 // cal_area_from_meshcode(meshcode,extension=F)
 // : calculate size (northern west-to-east span H1, sothern west-to-east span H2, north-to-south span W, and area approximated by trapezoide A) of world grid square indicated by meshcode
+// cal_area_from_table(meshcode,extension,res)
+// : same as cal_area_from_meshcode but looked up from a table of the sizes of every latitude row, which is built on first use of each level
 // cal_area_from_latlong(latlong)
 // : calculate size (northern west-to-east span H1, sothern west-to-east span H2, north-to-south span W, and area approximated by trapezoid A) of a trapezoid on the WGS84 Earth ellipoid indicated by (latlong$lat0, latlong$long0, latlong$lat1, latlong$long1)
 //
+// 4.
+//
+// meshcode_to_cell(meshcode,extension,out,off)
+// : calculate the level, the global row and the global column (integers counted from the equator and the prime meridian) of meshcode, without floating point
+// cell_to_meshcode(level,row,col)
+// : calculate the grid square code of level at a global row and column (inverse of meshcode_to_cell)
+// meshcode_to_cell_batch(meshcode[],off,len,extension,out[],outOff) and cell_to_meshcode_batch(level,row[],col[],off,len,out[],outOff)
+// : the same for columns of codes and of rows and columns
+// meshcode_to_cell_level(level,meshcode,out,off) and cell_to_meshcode_level(level,row,col)
+// : the same for a level given as a MeshLevel
+// meshcode_neighbour(meshcode,extension,dlat,dlong)
+// : calculate the grid square code of the same level dlat rows north and dlong columns east of meshcode (0 beyond a pole)
+// meshcode_neighbours4(meshcode,extension,out,off)
+// : calculate the 4 neighbours sharing an edge (N, E, S, W) into out[off] to out[off+3]
+// meshcode_neighbours8(meshcode,extension,out,off)
+// : calculate the 8 neighbours (N, NE, E, SE, S, SW, W, NW) into out[off] to out[off+7]
+// meshcode_kring(meshcode,extension,k,out,off)
+// : calculate all grid square codes within k rows and k columns of meshcode into out[] (at most meshcode_kring_size(k) codes)
+// meshcode_parent(meshcode,extension,level)
+// : calculate the grid square code of the coarser level containing meshcode (an extended 100m square lies in a 500m square)
+// meshcode_contains(meshcode,descendant,extension)
+// : test whether the grid square code descendant lies in the grid square meshcode
+// meshcode_children(meshcode,extension,level,out,off)
+// : calculate all grid square codes of the finer level lying in meshcode into out[] in increasing order (meshcode_children_count codes)
+// meshcode_descendant_range(meshcode,extension,level,out,off)
+// : calculate the first and the last grid square code of the finer level lying in meshcode into out[off] and out[off+1]
+//
+// meshcode_cover_bbox(level,lat0,long0,lat1,long1,sink)
+// : pass every grid square code of level meeting the box (latitude lat0 to lat1, longitude long0 to long1; long0 > long1 crosses the 180th meridian) to sink, or return them as a LongStream
+// meshcode_cover_polygon(level,latitude[],longitude[],off,len,sink)
+// : pass every grid square code of level meeting the polygon with the given vertices to sink, or return them as a LongStream; whole 80km and 10km squares inside are emitted without testing
+// meshcode_overlap_polygon(level,latitude[],longitude[],off,len,parallel,visitor)
+// : pass every grid square code of level sharing area with the polygon to visitor with the area of its part inside the polygon and the fraction of the square it is, for areal interpolation; squares inside take the area of the square, only squares crossed by an edge are clipped, and the 80km squares may run in parallel (see MeshOverlap)
+// meshcode_trace(level,latitude[],longitude[],off,len,sink)
+// : pass the grid square codes of level crossed by a trajectory to sink in the order they are crossed, walking the segments square by square instead of encoding points along them (see MeshTrace)
+// meshcode_trace_batch(level,latitude[],longitude[],start[],first,count,visitor)
+// : the same for trajectories stored one after another in the vertex arrays, each square with the positions along the trajectory where it is entered and left and the length travelled in it
+//
+// meshcode_within(level,latitude,longitude,distance,sink)
+// : pass every grid square code of level whose centre lies within distance metres of a point (geodesic on the WGS84 ellipsoid) to sink; bounds settle almost every square, and Vincenty runs only on the few at the edge (see MeshNear)
+// meshcode_nearest(level,latitude,longitude,k,maxDistance,filter,out[],distance[],off)
+// : find the k grid squares of level (for which filter holds) with the centres nearest to a point within maxDistance metres, nearest first, with their distances
+//
+// meshcode_to_key(meshcode,extension)
+// : calculate a 64-bit key of the level and the Morton (Z-order) interleaving of the global row and column of meshcode, which sorts squares close on the ground close together (see MeshKey)
+// key_to_meshcode(key)
+// : calculate the grid square code of a key made by meshcode_to_key
+// meshcode_key_ranges(level,lat0,long0,lat1,long1,maxRanges,out,off)
+// : split the keys of the squares of level meeting the box into at most maxRanges ranges of consecutive keys (first and last key of each into out[])
+// meshcode_sort_batch(level,zorder,latitude[],longitude[],off,len,out[],order[],outOff)
+// : calculate the grid square codes of level for columns of geographical positions and sort them by code (or by key with zorder) with a parallel radix sort, giving the sorted codes and the index of the position of each; positions in one square keep their order (see PointSort, which sorts files of points larger than memory)
+//
+// stats_snapshot() and stats_reset()
+// : read and clear the call and failure counts and the latency histograms of the encoder, the decoder and Vincenty per level, kept only when the JVM runs with -Dworldmesh.stats=true (see MeshStats, which also commits Flight Recorder events for failed and slow calls)
+//
+// These work on the digits of the code with integer arithmetic and carry across the 10km and 80km
+// boundaries, the equator, the prime meridian, 100 degrees of longitude and the 180th meridian.
+// The covers stream the codes 80km square by 80km square without collecting them, so a parallel
+// LongStream splits the work over the 80km squares.
+//
 //
 //Test Code 
 //class TestWorldmesh{
@@ -101,6 +181,12 @@ package com.example;//
 //    }
 //}
 
+import java.util.Objects;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+
 class Worldmesh{
   public double lat0;
   public double long0;
@@ -117,223 +203,76 @@ class Worldmesh{
   }
   public Worldmesh meshcode_to_latlong_grid(long meshcode, boolean extension){
     Worldmesh wm = new Worldmesh();
-    int code0,code12,code34,code5,code6,code7,code8,code9,code10,code11,codeex10,codeex11;
-    code0=0;
-    code12=0;
-    code34=0;
-    code5=0;
-    code6=0;
-    code7=0;
-    code8=0;
-    code9=0;
-    code10=0;
-    code11=0;
-    codeex10=0;
-    codeex11=0;
-    double lat_width,long_width;
-    lat_width=0.0; long_width=0.0;
-    double dlat,dlong;
-    dlat=0.0; dlong=0.0;
-    String code = String.valueOf(meshcode);
-    int ncode = code.length();
-    if (ncode >= 6) { // more than 1st grid
-	code0 = Integer.parseInt(code.substring(0, 0+1)); // code0 : 1 to 8
-	code0 = code0 - 1; // transforming code0 from 0 to 7
-	String s_code12 = code.substring(1, 1+3);
-	if(s_code12.substring(0,0+2)=="00"){
-            code12 = Integer.parseInt(code.substring(3, 3+1));
-	}else{
-            if(s_code12.substring(0,0+1)=="0"){
-		code12 = Integer.parseInt(code.substring(2, 2+2));
-            }
-            else{
-		code12 = Integer.parseInt(code.substring(1, 1+3));
-            }
-	}
-	if(code.substring(4,4+1)=="0"){
-            code34 = Integer.parseInt(code.substring(5, 5+1));
-	}
-	else{
-            code34 = Integer.parseInt(code.substring(4, 4+2));
-	}
-	lat_width  = 2.0 / 3.0;
-	long_width = 1.0;
-    }
-    else {
-	return(null);
-    }
-    if (ncode >= 8) { // more than 2nd grid
-	code5 = Integer.parseInt(code.substring(6, 6+1));
-	code6 = Integer.parseInt(code.substring(7, 7+1));
-	lat_width  = lat_width / 8.0;
-	long_width = long_width / 8.0;
-    }
-    if (ncode >= 10) { // more than 3rd grid
-	code7 = Integer.parseInt(code.substring(8, 8+1));
-	code8 = Integer.parseInt(code.substring(9, 9+1));
-	lat_width = lat_width / 10.0;
-	long_width = long_width / 10.0;
-    }
-    if (ncode >= 11) { // more than 4th grid
-	code9 = Integer.parseInt(code.substring(10, 10+1));
-	lat_width = lat_width / 20.0;
-	long_width = long_width / 20.0;
-    }
-    if (ncode >= 12) { // more than 5th grid
-	code10 = Integer.parseInt(code.substring(11, 11+1));
-	lat_width = lat_width / 40.0;
-	long_width = long_width / 40.0;
-    }
-    if(!extension){
-	if (ncode >= 13) { // more than 6th grid
-	    code11 = Integer.parseInt(code.substring(12, 12+1));
-	    lat_width = lat_width / 80.0;
-	    long_width = long_width / 80.0;
-	}
+    if(!decode(meshcode, extension, null, 0, wm)) return(null);
+    return wm;
+  }
+  // same as meshcode_to_latlong_grid but writes lat0, long0, lat1 and long1 into the given Worldmesh
+  // returns false (and leaves res untouched) where meshcode_to_latlong_grid returns null
+  public boolean meshcode_to_latlong_grid(long meshcode, boolean extension, Worldmesh res){
+    return(decode(meshcode, extension, null, 0, res));
+  }
+  // same as meshcode_to_latlong_grid but writes lat0, long0, lat1 and long1 into out[off] to out[off+3]
+  public boolean meshcode_to_latlong_grid(long meshcode, boolean extension, double[] out){
+    return(decode(meshcode, extension, out, 0, null));
+  }
+  public boolean meshcode_to_latlong_grid(long meshcode, boolean extension, double[] out, int off){
+    return(decode(meshcode, extension, out, off, null));
+  }
+
+  // decode_code, counted by MeshStats when instrumentation is on
+  private static boolean decode(long meshcode, boolean extension, double[] out, int off, Worldmesh res){
+    if(!MeshStats.ENABLED) return(decode_code(meshcode, extension, out, off, res));
+    long t0 = MeshStats.start();
+    boolean ok = decode_code(meshcode, extension, out, off, res);
+    MeshStats.decode(meshcode, extension, t0, ok);
+    return(ok);
+  }
+
+  // The corners are computed down the steps of the level (see MeshLevel) with the same floating
+  // point steps as the original string based decoder. A code of 7, 9 or more than 13 digits has
+  // no level and gives the corners (0, 0, 0, 0), as it always has.
+  private static boolean decode_code(long meshcode, boolean extension, double[] out, int off, Worldmesh res){
+    if(meshcode <= 0) return(false);
+    int ncode = ndigits(meshcode);
+    if(ncode < 6) return(false);
+    MeshLevel level = MeshLevel.of_digits(ncode, extension);
+    if(level != null){
+      level.decode(meshcode, out, off, res);
+    }else if(res != null){
+      res.lat0 = res.long0 = res.lat1 = res.long1 = 0.0;
     }else{
-	if (ncode >= 13) { // Extended 100m grid square code
-	    codeex10 = Integer.parseInt(code.substring(11, 11+1));
-	    codeex11 = Integer.parseInt(code.substring(12, 12+1));
-	    lat_width = lat_width / 100.0;
-	    long_width = long_width / 100.0;
-	}
+      out[off] = out[off+1] = out[off+2] = out[off+3] = 0.0;
     }
-    
-    // 0'th grid
-    int z = code0 % 2;
-    int y = ((code0 - z)/2) % 2;
-    int x = (code0 - 2*y - z)/4;
-
-    switch(ncode){
-    case 6: // 1st grid (6 digits)
-	wm.lat0 = (code12-x+1) * 2.0 / 3.0;        
-	wm.long0 = Double.valueOf((code34+y) + 100*z);
-	wm.lat0 = Double.valueOf(1-2*x)*wm.lat0;        
-	wm.long0 = Double.valueOf(1-2*y)*wm.long0;
-	dlat = 2.0/3.0;
-	dlong = 1.0;
-	break;
-    case 8: // 2nd grid (8 digits)
-	wm.lat0 = Double.valueOf(code12) * 2.0 / 3.0;
-	wm.long0 = Double.valueOf(code34 + 100*z);
-	wm.lat0 = wm.lat0  + (Double.valueOf(code5-x+1) * 2.0 / 3.0) / 8.0; 
-	wm.long0 = wm.long0 +  Double.valueOf(code6+y) / 8.0;
-	wm.lat0 = Double.valueOf(1-2*x) * wm.lat0;
-	wm.long0 = Double.valueOf(1-2*y) * wm.long0;
-	dlat = 2.0/3.0/8.0;
-	dlong = 1.0/8.0;
-	break;
-    case 10: // 3rd grid (10 digits)
-	wm.lat0 = Double.valueOf(code12) * 2.0 / 3.0;  
-	wm.long0 = Double.valueOf(code34 + 100*z);
-	wm.lat0 = wm.lat0 + (Double.valueOf(code5) * 2.0 / 3.0) / 8.0; 
-	wm.long0 = wm.long0 +  Double.valueOf(code6) / 8.0;
-	wm.lat0 = wm.lat0 + (Double.valueOf(code7-x+1) * 2.0 / 3.0) / 8.0 / 10.0;
-	wm.long0 = wm.long0 + Double.valueOf(code8+y) / 8.0 / 10.0;
-	wm.lat0 = Double.valueOf(1-2*x)*wm.lat0;
-	wm.long0 = Double.valueOf(1-2*y)*wm.long0;
-	dlat = 2.0/3.0/8.0/10.0;
-	dlong = 1.0/8.0/10.0;
-	break;
-    case 11: // 4th grid (11 digits)
-	// code 9
-	//     N
-	//   3 | 4
-	// W - + - E
-	//   1 | 2
-	//     S
-	wm.lat0 = Double.valueOf(code12) * 2.0 / 3.0;  
-	wm.long0 = Double.valueOf(code34 + 100*z);
-	wm.lat0 = wm.lat0 + (Double.valueOf(code5) * 2.0 / 3.0) / 8.0; 
-	wm.long0 = wm.long0 + Double.valueOf(code6) / 8.0;
-	wm.lat0 = wm.lat0  + (Double.valueOf(code7-x+1) * 2.0 / 3.0) / 8.0 / 10.0;
-	wm.long0 = wm.long0 + Double.valueOf(code8+y) / 8.0 / 10.0;
-	wm.lat0 = wm.lat0  + (Math.floor(Double.valueOf((code9-1)/2+x-1))) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0;
-	wm.long0 = wm.long0 + Double.valueOf((code9-1)%2-y) / 8.0 / 10.0 / 2.0;
-	wm.lat0 = Double.valueOf(1-2*x)*wm.lat0;
-	wm.long0 = Double.valueOf(1-2*y)*wm.long0;
-	dlat = 2.0/3.0/8.0/10.0/2.0;
-	dlong = 1.0/8.0/10.0/2.0;
-	break;
-    case 12 : // 5th grid (12 digits)
-	// code 10
-	//     N
-	//   3 | 4
-	// W - + - E
-	//   1 | 2
-	//     S
-	wm.lat0 = Double.valueOf(code12) * 2.0 / 3.0;  
-	wm.long0 = Double.valueOf(code34 + 100*z);
-	wm.lat0 = wm.lat0  + (Double.valueOf(code5) * 2.0 / 3.0) / 8.0; 
-	wm.long0 = wm.long0 + Double.valueOf(code6) / 8.0;
-	wm.lat0 = wm.lat0  + (Double.valueOf(code7-x+1) * 2.0 / 3.0) / 8.0 / 10.0;
-	wm.long0 = wm.long0 +  Double.valueOf(code8+y) / 8.0 / 10.;
-	wm.lat0 = wm.lat0 + (Math.floor(Double.valueOf((code9-1)/2)+x-1)) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0;
-	wm.long0 = wm.long0 + Double.valueOf((code9-1)%2-y) / 8.0 / 10.0 / 2.0;
-	wm.lat0 = wm.lat0  + (Math.floor(Double.valueOf((code10-1)/2+x-1))) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0 / 2.0;
-	wm.long0 = wm.long0 + Double.valueOf((code10-1)%2-y) / 8.0 / 10.0 / 2.0 / 2.0;
-	wm.lat0 = Double.valueOf(1-2*x)*wm.lat0;
-	wm.long0 = Double.valueOf(1-2*y)*wm.long0;
-	dlat = 2.0/3.0/8.0/10.0/2.0/2.0;
-	dlong = 1.0/8.0/10.0/2.0/2.0;
-	break;
-    case 13:
-	if(!extension){
-	    // 6rd grid (13 digits)	
-	    // code 11
-	    //     N
-	    //   3 | 4
-	    // W - + - E
-	    //   1 | 2
-	    //     S
-	    wm.lat0 = Double.valueOf(code12) * 2.0 / 3.0;  
-	    wm.long0 = Double.valueOf(code34 + 100*z);
-	    wm.lat0 = wm.lat0  + (Double.valueOf(code5) * 2.0 / 3.0) / 8.0; 
-	    wm.long0 = wm.long0 + Double.valueOf(code6) / 8.0;
-	    wm.lat0 = wm.lat0  + (Double.valueOf(code7-x+1) * 2.0 / 3.0) / 8.0 / 10.0;
-	    wm.long0 = wm.long0 + Double.valueOf(code8+y) / 8.0 / 10.0;
-	    wm.lat0 = wm.lat0  + (Math.floor(Double.valueOf((code9-1)/2+x-1))) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0;
-	    wm.long0 = wm.long0 + Double.valueOf((code9-1)%2-y) / 8.0 / 10.0 / 2.0;
-	    wm.lat0 = wm.lat0 + (Math.floor(Double.valueOf((code10-1)/2+x-1))) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0 / 2.0;
-	    wm.long0 = wm.long0 + Double.valueOf((code10-1)%2-y) / 8.0 / 10.0 / 2.0 / 2.0;
-	    wm.lat0 = wm.lat0 + (Math.floor(Double.valueOf((code11-1)/2+x-1))) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0 / 2.0 / 2.0;
-	    wm.long0 = wm.long0 + Double.valueOf((code11-1)%2-y) / 8.0 / 10.0 / 2.0 / 2.0 / 2.0;
-	    wm.lat0 = Double.valueOf(1-2*x)*wm.lat0;
-	    wm.long0 = Double.valueOf(1-2*y)*wm.long0;
-	    dlat = 2.0/3.0/8.0/10.0/2.0/2.0/2.0;
-	    dlong = 1.0/8.0/10.0/2.0/2.0/2.0;
-	}else{ // Extended 100m grid square code
-	    //    Code10
-	    //      4*****
-	    //      3*****
-	    //      2*****
-	    //      1*****
-	    //      0*****
-	    //       01234 Code11
-	    wm.lat0 = Double.valueOf(code12) * 2.0 / 3.0;  
-	    wm.long0 = Double.valueOf(code34 + 100*z);
-	    wm.lat0 = wm.lat0 + (Double.valueOf(code5) * 2.0 / 3.0) / 8.0; 
-	    wm.long0 = wm.long0 + Double.valueOf(code6) / 8.0;
-	    wm.lat0 = wm.lat0 + (Double.valueOf(code7-x+1) * 2.0 / 3.0) / 8.0 / 10.0;
-	    wm.long0 = wm.long0 + Double.valueOf(code8+y) / 8.0 / 10.0;
-	    wm.lat0 = wm.lat0 + (Math.floor(Double.valueOf(code9-1)/2)+2*x-2) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0;
-	    wm.long0 = wm.long0 + Double.valueOf((code9-1)%2-2*y) / 8.0 / 10.0 / 2.0;
-	    wm.lat0 = wm.lat0 + Double.valueOf(codeex10-x+1) * 2.0 / 3.0 / 8.0 / 10.0 / 2.0 / 5.0;
-	    wm.long0 = wm.long0 + Double.valueOf(codeex11+y) / 8.0 / 10.0 / 2.0 / 5.0;
-	    wm.lat0 = Double.valueOf(1-2*x)*wm.lat0;
-	    wm.long0 = Double.valueOf(1-2*y)*wm.long0;
-	    dlat = 2.0/3.0/8.0/10.0/2.0/5.0;
-	    dlong = 1.0/8.0/10.0/2.0/5.0;
-	}
+    return(true);
+  }
+
+  private static final double[] POW10D = {1.0, 10.0, 100.0, 1000.0, 10000.0, 100000.0, 1000000.0, 10000000.0};
+
+  // Rounds v to the same value as String.format("%20.20f",v) cut down to 9, 10 or 11 characters
+  // and parsed back, without building the string. The formatter prints the shortest decimal
+  // that identifies v, so the cut is taken from that decimal rather than from the exact value:
+  // if the next boundary (n+1)/10^k is itself read back as v, the formatter printed it.
+  static double myformat8(double v){
+    double m = Math.abs(v);
+    boolean neg = Double.doubleToRawLongBits(v) < 0;
+    if(!(m < 1000.0)) return(myformat8_string(v));
+    if(m < 1e-3){
+      if(m < 9.99999e-8) return(neg ? -0.0 : 0.0);
+      return(myformat8_string(v)); // the formatter rounds at the 20th decimal here
     }
-    wm.lat1 = wm.myformat8(wm.lat0-dlat);  
-    wm.long1 = wm.myformat8(wm.long0+dlong);
-    wm.lat0 = wm.myformat8(wm.lat0);  
-    wm.long0 = wm.myformat8(wm.long0);
-    return wm;
+    int nint = m < 10.0 ? 1 : (m < 100.0 ? 2 : 3);
+    int k = (neg ? 7 : (v > 100.0 ? 10 : (v > 10.0 ? 9 : 8))) - nint; // number of decimals kept
+    double p = POW10D[k];
+    double n = Math.floor(m*p);
+    double r = Math.fma(m, p, -n); // m*p-n without intermediate rounding
+    if(r < 0.0) n = n - 1.0;
+    else if(r >= 1.0) n = n + 1.0;
+    if((n+1.0)/p == m) n = n + 1.0;
+    double res = n/p;
+    return(neg ? -res : res);
   }
 
-  private double myformat8(double v){
+  private static double myformat8_string(double v){
     String s = String.format("%20.20f",v);
     String ss;
     if(v > 100.0) ss = s.substring(0,3+8);
@@ -345,8 +284,7 @@ class Worldmesh{
       return this.meshcode_to_latlong(meshcode, false);
   }
   public Worldmesh meshcode_to_latlong(long meshcode, boolean extension){
-    Worldmesh res = new Worldmesh();
-    res = this.meshcode_to_latlong_grid(meshcode,extension);
+    Worldmesh res = this.meshcode_to_latlong_grid(meshcode,extension);
     res.latitude = res.lat0;
     res.longitude = res.long0;
     return res;    
@@ -357,8 +295,7 @@ class Worldmesh{
   }
     
   public Worldmesh meshcode_to_latlong_NW(long meshcode, boolean extension){
-    Worldmesh res = new Worldmesh();
-    res = this.meshcode_to_latlong_grid(meshcode, extension);
+    Worldmesh res = this.meshcode_to_latlong_grid(meshcode, extension);
     res.latitude = res.lat0;
     res.longitude = res.long0;
     return res;
@@ -369,8 +306,7 @@ class Worldmesh{
   }
 
   public Worldmesh meshcode_to_latlong_SW(long meshcode, boolean extension){
-    Worldmesh res = new Worldmesh();
-    res = this.meshcode_to_latlong_grid(meshcode, extension);
+    Worldmesh res = this.meshcode_to_latlong_grid(meshcode, extension);
     res.latitude = res.lat1;
     res.longitude = res.long0;
     return res;
@@ -379,8 +315,7 @@ class Worldmesh{
       return this.meshcode_to_latlong_NE(meshcode, false);
   }
   public Worldmesh meshcode_to_latlong_NE(long meshcode, boolean extension){
-    Worldmesh res = new Worldmesh();
-    res = this.meshcode_to_latlong_grid(meshcode);
+    Worldmesh res = this.meshcode_to_latlong_grid(meshcode);
     res.latitude = res.lat0;
     res.longitude = res.long1;
     return res;
@@ -391,182 +326,691 @@ class Worldmesh{
   }
     
   public Worldmesh meshcode_to_latlong_SE(long meshcode, boolean extension){
-    Worldmesh res = new Worldmesh();
-    res = this.meshcode_to_latlong_grid(meshcode, extension);
+    Worldmesh res = this.meshcode_to_latlong_grid(meshcode, extension);
     res.latitude = res.lat1;
     res.longitude = res.long1;
     return res;
   }
 
   public long cal_meshcode6(double latitude, double longitude){
-    String mesh;
-    int o;
-    int x,y,z;
-    if(latitude < 0.0){
-          o = 4;
-    }
-    else{
-          o = 0;
-    }
-    if(longitude < 0.0){
-          o = o + 2;
-    }
-    if(Math.abs(longitude) >= 100.0) o = o + 1;
-    z = o % 2;
-    y = ((o-z)/2) % 2;
-    x = (o - 2*y - z)/4;
-    o = o + 1;
-    latitude = Double.valueOf(1-2*x)*latitude;
-    longitude = Double.valueOf(1-2*y)*longitude;
-    int p = (int)Math.floor(latitude*60/40);
-    double a = (latitude*60/40-p)*40;
-    int q = (int)Math.floor(a/5);
-    double b = (a/5-q)*5;
-    int r = (int)Math.floor(b*60/30);
-    double c = (b*60/30-r)*30;
-    int s2u = (int)Math.floor(c/15);
-    double d = (c/15-s2u)*15;
-    int s4u = (int)Math.floor(d/7.5);
-    double e = (d/7.5-s4u)*7.5;
-    int s8u = (int)Math.floor(e/3.75);
-    int u = (int)Math.floor(longitude-100*z);
-    double f = longitude-100*z-u;
-    int v = (int)Math.floor(f*60/7.5);
-    double g = (f*60/7.5-v)*7.5;
-    int w = (int)Math.floor(g*60/45);
-    double h = (g*60/45-w)*45;
-    int s2l = (int)Math.floor(h/22.5);
-    double i = (h/22.5-s2l)*22.5;
-    int s4l = (int)Math.floor(i/11.25);
-    double j = (i/11.25-s4l)*11.25;
-    int s8l = (int)Math.floor(j/5.625);
-    int s2 = s2u*2+s2l+1;
-    int s4 = s4u*2+s4l+1;
-    int s8 = s8u*2+s8l+1;
-    if(u < 10.0){
-       if(p < 10.0){
-           mesh = String.valueOf(o)+"00"+String.valueOf(p)+"0"+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(s4)+String.valueOf(s8);
-       }else{
-           if(p < 100.0){
-               mesh = String.valueOf(o)+"0"+String.valueOf(p)+"0"+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(s4)+String.valueOf(s8);
-           }
-           else{
-               mesh = String.valueOf(o)+String.valueOf(p)+"0"+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(s4)+String.valueOf(s8);
-           }
-       }
-    }else{
-       if(p < 10.0){
-            mesh = String.valueOf(o)+"00"+String.valueOf(p)+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(s4)+String.valueOf(s8);
-       }else{
-           if(p < 100.0){
-                mesh = String.valueOf(o)+"0"+String.valueOf(p)+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(s4)+String.valueOf(s8);
-           }else{
-                mesh = String.valueOf(o)+String.valueOf(p)+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(s4)+String.valueOf(s8);
-           }
-       }
-    }
-    return(Long.parseLong(mesh));
+    return(encode(latitude, longitude, 6, null, 0));
   }
 // 
   public long cal_meshcode(double latitude, double longitude){
     return(this.cal_meshcode3(latitude,longitude));
   }
   public long cal_meshcode1(double latitude, double longitude){
-    String mesh = String.valueOf(this.cal_meshcode6(latitude,longitude));
-    return(Long.parseLong(mesh.substring(0,6)));
+    return(encode(latitude, longitude, 1, null, 0));
   }
   public long cal_meshcode2(double latitude, double longitude){
-    String mesh = String.valueOf(this.cal_meshcode6(latitude,longitude));
-    return(Long.parseLong(mesh.substring(0,8)));
+    return(encode(latitude, longitude, 2, null, 0));
   }
   public long cal_meshcode3(double latitude, double longitude){
-    String mesh = String.valueOf(this.cal_meshcode6(latitude,longitude));
-    return(Long.parseLong(mesh.substring(0,10)));
-}
+    return(encode(latitude, longitude, 3, null, 0));
+  }
   public long cal_meshcode4(double latitude, double longitude){
-    String mesh = String.valueOf(this.cal_meshcode6(latitude,longitude));
-    return(Long.parseLong(mesh.substring(0,11)));
+    return(encode(latitude, longitude, 4, null, 0));
   }
   public long cal_meshcode5(double latitude, double longitude){
-    String mesh = String.valueOf(this.cal_meshcode6(latitude,longitude));
-    return(Long.parseLong(mesh.substring(0,12)));
+    return(encode(latitude, longitude, 5, null, 0));
   }
   // calculate an extended 100m grid square code (13 digits) from a geographical position (latitude, longitude) - 3 arc-second for latitude and 4.5 arc-second for longitude
   public long cal_meshcode_ex100(double latitude, double longitude){
-      String mesh;
-      int o;
-      int x,y,z;
-      if(latitude < 0.0){
-	  o = 4;
-      }
-      else{
-	  o = 0;
+    return(encode(latitude, longitude, 7, null, 0));
+  }
+  // calculate the grid square codes of all levels from a geographical position (latitude, longitude) in one pass
+  // out[off] to out[off+5] : cal_meshcode1 to cal_meshcode6, out[off+6] : cal_meshcode_ex100
+  public void cal_meshcode_all(double latitude, double longitude, long[] out){
+    this.cal_meshcode_all(latitude, longitude, out, 0);
+  }
+  public void cal_meshcode_all(double latitude, double longitude, long[] out, int off){
+    encode(latitude, longitude, 7, out, off);
+  }
+
+  // calculate the grid square code of a level given by its descriptor (see MeshLevel), such as the
+  // 50m (MeshLevel.EX50, 14 digits) and 10m (MeshLevel.EX10, 15 digits) squares of the extended 100m square
+  public long cal_meshcode_level(MeshLevel level, double latitude, double longitude){
+    return(level.encode(latitude, longitude));
+  }
+
+  // same as meshcode_to_latlong_grid for a code of the given level into out[off] to out[off+3];
+  // false (and out untouched) if meshcode does not have the digits of level. The corners of a
+  // level made by MeshLevel.subdivide are exact (not truncated as those of levels 1 to 7), and an
+  // invalid code of such a level gives false as well.
+  public boolean meshcode_to_latlong_grid_level(MeshLevel level, long meshcode, double[] out, int off){
+    Objects.checkFromIndexSize(off, 4, out.length);
+    if(meshcode <= 0 || ndigits(meshcode) != level.ndigits) return(false);
+    return(level.decode(meshcode, out, off, null));
+  }
+
+  // Batch versions work on columns of primitive arrays. Above BATCH_THRESHOLD elements the
+  // range is split into ForkJoin tasks which run in the pool of the calling thread (or the
+  // common pool), each chunk being a plain counted loop without allocation.
+  static final int BATCH_THRESHOLD = 1 << 14;
+
+  // calculate the grid square codes of latitude[off+i], longitude[off+i] (i = 0 to len-1) into out[outOff+i]
+  // level : 1 to 6 (cal_meshcode1 to cal_meshcode6), 7 (cal_meshcode_ex100)
+  public void cal_meshcode_batch(int level, double[] latitude, double[] longitude, int off, int len, long[] out, int outOff){
+    if(level < 1 || level > 7) throw new IllegalArgumentException("level must be 1 to 7: " + level);
+    Objects.checkFromIndexSize(off, len, latitude.length);
+    Objects.checkFromIndexSize(off, len, longitude.length);
+    Objects.checkFromIndexSize(outOff, len, out.length);
+    if(len < BATCH_THRESHOLD){
+      encode_range(level, latitude, longitude, off, len, out, outOff);
+    }else{
+      new BatchTask(level, false, latitude, longitude, null, off, len, out, null, outOff).invoke();
+    }
+  }
+
+  // calculate (latitude0, longitude0, latitude1, longitude1) of meshcode[off+i] (i = 0 to len-1) into out[outOff+4*i] to out[outOff+4*i+3]
+  // codes for which meshcode_to_latlong_grid returns null give NaN
+  public void meshcode_to_latlong_grid_batch(long[] meshcode, int off, int len, boolean extension, double[] out, int outOff){
+    Objects.checkFromIndexSize(off, len, meshcode.length);
+    Objects.checkFromIndexSize(outOff, Math.multiplyExact(4, len), out.length);
+    if(len < BATCH_THRESHOLD){
+      decode_range(extension, meshcode, off, len, out, outOff);
+    }else{
+      new BatchTask(0, extension, null, null, meshcode, off, len, null, out, outOff).invoke();
+    }
+  }
+
+  private static void encode_range(int level, double[] latitude, double[] longitude, int off, int len, long[] out, int outOff){
+    for(int i = 0; i < len; i++){
+      out[outOff+i] = encode(latitude[off+i], longitude[off+i], level, null, 0);
+    }
+  }
+
+  private static void decode_range(boolean extension, long[] meshcode, int off, int len, double[] out, int outOff){
+    for(int i = 0; i < len; i++){
+      int k = outOff + 4*i;
+      if(!decode(meshcode[off+i], extension, out, k, null)){
+        out[k] = out[k+1] = out[k+2] = out[k+3] = Double.NaN;
       }
-      if(longitude < 0.0){
-	  o = o + 2;
+    }
+  }
+
+  // encodes (latitude, longitude != null) or decodes (meshcode != null) the range off to off+len-1
+  private static final class BatchTask extends RecursiveAction {
+    private final int level;
+    private final boolean extension;
+    private final double[] latitude;
+    private final double[] longitude;
+    private final long[] meshcode;
+    private final int off;
+    private final int len;
+    private final long[] codes;
+    private final double[] grid;
+    private final int outOff;
+
+    BatchTask(int level, boolean extension, double[] latitude, double[] longitude, long[] meshcode,
+              int off, int len, long[] codes, double[] grid, int outOff){
+      this.level = level;
+      this.extension = extension;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.meshcode = meshcode;
+      this.off = off;
+      this.len = len;
+      this.codes = codes;
+      this.grid = grid;
+      this.outOff = outOff;
+    }
+
+    @Override
+    protected void compute(){
+      if(len <= BATCH_THRESHOLD){
+        if(meshcode == null) encode_range(level, latitude, longitude, off, len, codes, outOff);
+        else decode_range(extension, meshcode, off, len, grid, outOff);
+        return;
       }
-      if(Math.abs(longitude) >= 100) o = o + 1;
-      z = o % 2;
-      y = ((o - z)/2) % 2;
-      x = (o - 2*y - z)/4;
-      o = o + 1;
-      latitude = Double.valueOf(1-2*x)*latitude;
-      longitude = Double.valueOf(1-2*y)*longitude;
-      int p = (int)Math.floor(latitude*60/40);
-      double a = (latitude*60/40-p)*40;
-      int q = (int)Math.floor(a/5);
-      double b = (a/5-q)*5;
-      int r = (int)Math.floor(b*60/30);
-      double c = (b*60/30-r)*30;
-      int s2u = (int)Math.floor(c/15);
-      double d = (c/15-s2u)*15;
-      int et = (int)Math.floor(d/3);
-      double e = (d/3-et)*3;
-      int u = (int)Math.floor(longitude-100*z);
-      double f = longitude-100*z-u;
-      int v = (int)Math.floor(f*60/7.5);
-      double g = (f*60/7.5-v)*7.5;
-      int w = (int)Math.floor(g*60/45);
-      double h = (g*60/45-w)*45;
-      int s2l = (int)Math.floor(h/22.5);
-      double i = (h/22.5-s2l)*22.5;
-      int jt = (int)Math.floor(i/4.5);
-      double j = (i/9-jt)*4.5;
-      int s2 = s2u*2+s2l+1;
-	  //
-      if(u < 10.0){
-        if(p < 10.0){
-	    mesh = String.valueOf(o)+"00"+String.valueOf(p)+"0"+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(et)+String.valueOf(jt);
-	}else{
-	    if(p < 100.0){
-		mesh = String.valueOf(o)+"0"+String.valueOf(p)+"0"+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(et)+String.valueOf(jt);
-	    }
-	    else{
-		mesh = String.valueOf(o)+String.valueOf(p)+"0"+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(et)+String.valueOf(jt);
-	    }
-	}
+      int half = len >>> 1;
+      int step = meshcode == null ? 1 : 4;
+      invokeAll(new BatchTask(level, extension, latitude, longitude, meshcode, off, half, codes, grid, outOff),
+                new BatchTask(level, extension, latitude, longitude, meshcode, off+half, len-half, codes, grid, outOff+step*half));
+    }
+  }
+
+  static final long[] POW10 = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+    10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+    1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+  };
+  // number of digits of the grid square code of level 1 to 6 (and 7 : extended 100m)
+  static final int[] NDIGITS = MeshLevel.table(lv -> lv.ndigits);
+
+  // The digits are derived down the steps of the level (see MeshLevel) with exactly the same
+  // floating point operations as the original string based encoder, so the codes are identical;
+  // they are packed with long arithmetic instead of String.valueOf + Long.parseLong.
+  // level : 1 to 6 (cal_meshcode1 to cal_meshcode6), 7 (cal_meshcode_ex100)
+  // out : if not null, the codes of all levels are written to out[off] to out[off+6]
+  // encode_code, counted by MeshStats when instrumentation is on (cal_meshcode_all as level 0)
+  private static long encode(double latitude, double longitude, int level, long[] out, int off){
+    if(!MeshStats.ENABLED) return(encode_code(latitude, longitude, level, out, off));
+    long t0 = MeshStats.start();
+    long code = encode_code(latitude, longitude, level, out, off);
+    MeshStats.encode(out != null ? 0 : level, t0, latitude, longitude);
+    return(code);
+  }
+
+  private static long encode_code(double latitude, double longitude, int level, long[] out, int off){
+    if(out == null) return(MeshLevel.LEVELS[level].encode(latitude, longitude));
+    MeshLevel.encode_all(latitude, longitude, out, off);
+    return(out[off+level-1]);
+  }
+
+  // number of latitude rows in each of the northern and southern hemispheres and number of
+  // longitude columns in each of the eastern and western hemispheres for level 1 to 6 (7 : extended 100m)
+  static final int[] LEVEL_ROWS = MeshLevel.table(lv -> lv.rows);
+  static final int[] LEVEL_COLS = MeshLevel.table(lv -> lv.cols);
+
+  // number of decimal digits of a positive code
+  static int ndigits(long meshcode){
+    int n = 1;
+    while(n < POW10.length && meshcode >= POW10[n]) n++;
+    return(n);
+  }
+
+  // level of a grid square code : 1 to 6 (80km to 125m), 7 (extended 100m, 13 digits with extension)
+  // 0 if meshcode is not a grid square code within latitude [-90, 90) and longitude [-180, 180)
+  static int meshcode_level(long meshcode, boolean extension){
+    return(cell_level(meshcode_cell(meshcode, extension)));
+  }
+
+  // latitude row of a valid code of the given level, counted from the equator within its hemisphere
+  static int meshcode_lat_row(long meshcode, int level){
+    int y = (int)(MeshLevel.LEVELS[level].cell(meshcode) >>> 32) - LEVEL_ROWS[level];
+    return(y < 0 ? -y-1 : y);
+  }
+
+  // code of the grid square of the given level at latitude row and longitude column (counted
+  // from the equator and the prime meridian within the hemispheres given by south and west)
+  static long meshcode_of_cell(int level, boolean south, boolean west, int row, int col){
+    return(MeshLevel.LEVELS[level].code_of_cell(south, west, row, col));
+  }
+
+  // Integer cell coordinates : a square of level is addressed by its global row y (-LEVEL_ROWS[level]
+  // to LEVEL_ROWS[level]-1, northwards from the south pole, 0 is the first row north of the equator)
+  // and its global column x (-LEVEL_COLS[level] to LEVEL_COLS[level]-1, eastwards from the 180th
+  // meridian, 0 is the first column east of the prime meridian), so the hemispheres and the 100
+  // degree split of longitude in the area code are folded into plain integers. Both directions work
+  // on the digits of the code without floating point and are exact.
+
+  // level of meshcode (1 to 6, 7 : extended 100m) with its global row into out[off] and its global
+  // column into out[off+1]; 0 (and out is left as it is) if meshcode is not a grid square code
+  public int meshcode_to_cell(long meshcode, boolean extension, int[] out, int off){
+    Objects.checkFromIndexSize(off, 2, out.length);
+    long c = meshcode_cell(meshcode, extension);
+    if(c == 0) return(0);
+    out[off] = cell_row(c);
+    out[off+1] = cell_col(c);
+    return(cell_level(c));
+  }
+
+  // code of the grid square of level (1 to 6, 7 : extended 100m) at global row y and global column x,
+  // 0 if level, y or x is out of range
+  public long cell_to_meshcode(int level, int y, int x){
+    if(level < 1 || level > 7) return(0);
+    int rows = LEVEL_ROWS[level], cols = LEVEL_COLS[level];
+    if(y < -rows || y >= rows || x < -cols || x >= cols) return(0);
+    return(meshcode_of_cell(level, y < 0, x < 0, y < 0 ? -y-1 : y, x < 0 ? -x-1 : x));
+  }
+
+  // meshcode_to_cell of meshcode[off+i] (i = 0 to len-1) into out[outOff+3*i] (level, 0 if the code
+  // is not a grid square code), out[outOff+3*i+1] (global row) and out[outOff+3*i+2] (global column,
+  // both 0 for a code which is not a grid square code)
+  public void meshcode_to_cell_batch(long[] meshcode, int off, int len, boolean extension, int[] out, int outOff){
+    Objects.checkFromIndexSize(off, len, meshcode.length);
+    Objects.checkFromIndexSize(outOff, Math.multiplyExact(3, len), out.length);
+    for(int i = 0; i < len; i++){
+      long c = meshcode_cell(meshcode[off+i], extension);
+      int k = outOff + 3*i;
+      out[k] = cell_level(c);
+      out[k+1] = c == 0 ? 0 : cell_row(c);
+      out[k+2] = c == 0 ? 0 : cell_col(c);
+    }
+  }
+
+  // cell_to_meshcode of the squares of level at global rows row[off+i] and global columns col[off+i]
+  // (i = 0 to len-1) into out[outOff+i]
+  public void cell_to_meshcode_batch(int level, int[] row, int[] col, int off, int len, long[] out, int outOff){
+    Objects.checkFromIndexSize(off, len, row.length);
+    Objects.checkFromIndexSize(off, len, col.length);
+    Objects.checkFromIndexSize(outOff, len, out.length);
+    for(int i = 0; i < len; i++) out[outOff+i] = cell_to_meshcode(level, row[off+i], col[off+i]);
+  }
+
+  // meshcode_to_cell and cell_to_meshcode for a level given by its descriptor (see MeshLevel) : the
+  // global row into out[off] and the global column into out[off+1], false (and out untouched) if
+  // meshcode is not a code of level; 0 if y or x is out of range
+  public boolean meshcode_to_cell_level(MeshLevel level, long meshcode, int[] out, int off){
+    Objects.checkFromIndexSize(off, 2, out.length);
+    if(meshcode <= 0 || ndigits(meshcode) != level.ndigits) return(false);
+    long c = level.cell(meshcode);
+    if(c < 0) return(false);
+    out[off] = (int)(c >>> 32) - level.rows;
+    out[off+1] = (int)c - level.cols;
+    return(true);
+  }
+
+  public long cell_to_meshcode_level(MeshLevel level, int y, int x){
+    if(y < -level.rows || y >= level.rows || x < -level.cols || x >= level.cols) return(0);
+    return(level.code_of_cell(y < 0, x < 0, y < 0 ? -y-1 : y, x < 0 ? -x-1 : x));
+  }
+
+  // level, global row and global column of meshcode packed as level << 48 | (y + LEVEL_ROWS) << 24 |
+  // (x + LEVEL_COLS), 0 if meshcode is not a grid square code; this is meshcode_level, the row and
+  // the column in one pass over the digits (see MeshLevel.cell).
+  static long meshcode_cell(long meshcode, boolean extension){
+    if(meshcode <= 0 || meshcode >= POW10[13]) return(0);
+    MeshLevel level = MeshLevel.of_digits(ndigits(meshcode), extension);
+    if(level == null) return(0);
+    long c = level.cell(meshcode);
+    if(c < 0) return(0);
+    return((long)level.level << 48 | (c >>> 32) << 24 | (c & 0xFFFFFFFFL));
+  }
+
+  // level, global row and global column of a packed cell of meshcode_cell
+  static int cell_level(long c){
+    return((int)(c >>> 48));
+  }
+
+  static int cell_row(long c){
+    return((int)((c >>> 24) & 0xFFFFFF) - LEVEL_ROWS[cell_level(c)]);
+  }
+
+  static int cell_col(long c){
+    return((int)(c & 0xFFFFFF) - LEVEL_COLS[cell_level(c)]);
+  }
+
+  // level of a code of n digits (13 : 125m, the extended 100m level is chosen by extension), 0 for none
+  static final int[] LEVEL_OF_DIGITS = new int[14];
+  static {
+    for(int n = 6; n < LEVEL_OF_DIGITS.length; n++){
+      MeshLevel level = MeshLevel.of_digits(n, false);
+      if(level != null) LEVEL_OF_DIGITS[n] = level.level;
+    }
+  }
+
+  // code of the grid square dlat rows north and dlong columns east of meshcode at the same
+  // level, computed on the code digits; rows and columns carry over into the coarser digits,
+  // across the equator and the prime meridian, across 100 degrees of longitude (area code)
+  // and around the 180th meridian. 0 if the square lies beyond a pole or meshcode is not a
+  // grid square code.
+  public long meshcode_neighbour(long meshcode, boolean extension, int dlat, int dlong){
+    long c = meshcode_cell(meshcode, extension);
+    if(c == 0) return(0);
+    return(neighbour(cell_level(c), cell_row(c), cell_col(c), dlat, dlong));
+  }
+
+  // the 8 neighbours of meshcode into out[off] to out[off+7] : N, NE, E, SE, S, SW, W, NW
+  // (0 for squares beyond a pole); false (and out untouched) if meshcode is not a grid square code
+  public boolean meshcode_neighbours8(long meshcode, boolean extension, long[] out, int off){
+    long c = meshcode_cell(meshcode, extension);
+    if(c == 0) return(false);
+    Objects.checkFromIndexSize(off, 8, out.length);
+    int level = cell_level(c);
+    int y = cell_row(c);
+    int x = cell_col(c);
+    for(int k = 0; k < 8; k++) out[off+k] = neighbour(level, y, x, NEIGHBOUR_DLAT[k], NEIGHBOUR_DLONG[k]);
+    return(true);
+  }
+
+  // the 4 neighbours of meshcode sharing an edge into out[off] to out[off+3] : N, E, S, W
+  public boolean meshcode_neighbours4(long meshcode, boolean extension, long[] out, int off){
+    long c = meshcode_cell(meshcode, extension);
+    if(c == 0) return(false);
+    Objects.checkFromIndexSize(off, 4, out.length);
+    int level = cell_level(c);
+    int y = cell_row(c);
+    int x = cell_col(c);
+    for(int k = 0; k < 4; k++) out[off+k] = neighbour(level, y, x, NEIGHBOUR_DLAT[2*k], NEIGHBOUR_DLONG[2*k]);
+    return(true);
+  }
+
+  // all grid squares within k rows and k columns of meshcode (the k-ring, meshcode included) into
+  // out[off], out[off+1], ... row by row from south to north, each row from west to east.
+  // Squares beyond a pole are left out and a row never wraps onto itself, so at most
+  // meshcode_kring_size(k) codes are written; returns their number, or -1 if meshcode is not a
+  // grid square code.
+  public int meshcode_kring(long meshcode, boolean extension, int k, long[] out, int off){
+    if(k < 0) throw new IllegalArgumentException("k must not be negative: " + k);
+    long c = meshcode_cell(meshcode, extension);
+    if(c == 0) return(-1);
+    int level = cell_level(c);
+    int rows = LEVEL_ROWS[level];
+    int cols = LEVEL_COLS[level];
+    int y = cell_row(c);
+    int x = cell_col(c);
+    int y0 = Math.max(y-k, -rows);
+    int y1 = Math.min(y+k, rows-1);
+    int width = (int)Math.min(2L*k+1, 2L*cols);
+    Objects.checkFromIndexSize(off, Math.multiplyExact(y1-y0+1, width), out.length);
+    int n = 0;
+    for(int yy = y0; yy <= y1; yy++){
+      for(int i = 0; i < width; i++){
+        out[off+n] = cell(level, yy, (long)x-k+i, cols);
+        n++;
       }
-      else{
-	  if(p < 10.0){
-	      mesh = String.valueOf(o)+"00"+String.valueOf(p)+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(et)+String.valueOf(jt);
-	  }else{
-	      if(p < 100.0){
-		  mesh = String.valueOf(o)+"0"+String.valueOf(p)+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(et)+String.valueOf(jt);
-	      }
-	      else{
-		  mesh = String.valueOf(o)+String.valueOf(p)+String.valueOf(u)+String.valueOf(q)+String.valueOf(v)+String.valueOf(r)+String.valueOf(w)+String.valueOf(s2)+String.valueOf(et)+String.valueOf(jt);
-	      }
-	  }
+    }
+    return(n);
+  }
+
+  // size of the array meshcode_kring needs for any code and k
+  public static int meshcode_kring_size(int k){
+    return(Math.multiplyExact(2*k+1, 2*k+1));
+  }
+
+  // code of the grid square of the given level (1 to 6, 7 : extended 100m) which contains meshcode,
+  // taken as the leading digits of the code. An extended 100m square lies in a 500m square
+  // (level 4) but not in a 250m or 125m square. 0 if level is not meshcode's own level or a
+  // coarser one containing it, or meshcode is not a grid square code.
+  public long meshcode_parent(long meshcode, boolean extension, int level){
+    int own = meshcode_level(meshcode, extension);
+    if(own == 0 || level < 1 || level > 7 || !contains_level(level, own)) return(0);
+    return(meshcode / POW10[NDIGITS[own]-NDIGITS[level]]);
+  }
+
+  // true if descendant is a grid square code (interpreted with extension) lying in the grid square
+  // meshcode, or equal to it
+  public boolean meshcode_contains(long meshcode, long descendant, boolean extension){
+    int level = meshcode_level(descendant, extension);
+    if(level == 0 || meshcode <= 0) return(false);
+    int n = ndigits(meshcode);
+    if(n > NDIGITS[level]) return(false);
+    if(n == NDIGITS[level]) return(meshcode == descendant);
+    if(descendant / POW10[NDIGITS[level]-n] != meshcode) return(false);
+    int ancestor = meshcode_level(meshcode, false);
+    return(ancestor != 0 && contains_level(ancestor, level));
+  }
+
+  // the first and the last code of level (1 to 6, 7 : extended 100m) lying in the grid square
+  // meshcode into out[off] and out[off+1]. Every code of that level between the two, and only
+  // those, lies in meshcode, so a sorted column of codes can be rolled up with two binary
+  // searches. false (and out untouched) if level does not lie in meshcode's level.
+  public boolean meshcode_descendant_range(long meshcode, boolean extension, int level, long[] out, int off){
+    int own = meshcode_level(meshcode, extension);
+    if(own == 0 || level < 1 || level > 7 || !contains_level(own, level)) return(false);
+    Objects.checkFromIndexSize(off, 2, out.length);
+    long first = meshcode, last = meshcode;
+    for(int lv = next_level(own, level); lv != 0; lv = next_level(lv, level)){
+      first = first*POW10[NDIGITS[lv]-NDIGITS[parent_level(lv)]] + child_suffix(lv, 0);
+      last = last*POW10[NDIGITS[lv]-NDIGITS[parent_level(lv)]] + child_suffix(lv, CHILDREN[lv]-1);
+    }
+    out[off] = first;
+    out[off+1] = last;
+    return(true);
+  }
+
+  // all codes of level (1 to 6, 7 : extended 100m) lying in the grid square meshcode into
+  // out[off], out[off+1], ... in increasing order; returns their number
+  // (meshcode_children_count(meshcode's level, level)), or -1 if level does not lie in meshcode's level
+  public int meshcode_children(long meshcode, boolean extension, int level, long[] out, int off){
+    int own = meshcode_level(meshcode, extension);
+    if(own == 0 || level < 1 || level > 7 || !contains_level(own, level)) return(-1);
+    int total = meshcode_children_count(own, level);
+    Objects.checkFromIndexSize(off, total, out.length);
+    out[off] = meshcode;
+    int n = 1;
+    // expand one level at a time in place, from the back so that no code is overwritten before it is read
+    for(int lv = next_level(own, level); lv != 0; lv = next_level(lv, level)){
+      int k = CHILDREN[lv];
+      long scale = POW10[NDIGITS[lv]-NDIGITS[parent_level(lv)]];
+      for(int i = n-1; i >= 0; i--){
+        long c = out[off+i]*scale;
+        for(int j = k-1; j >= 0; j--) out[off+i*k+j] = c + child_suffix(lv, j);
       }
-      return(Long.parseLong(mesh));
+      n *= k;
+    }
+    return(n);
+  }
+
+  // number of codes of level lying in one grid square of the coarser level ancestor
+  // (64, 100 or 4 per level step, 25 from 500m to extended 100m)
+  public static int meshcode_children_count(int ancestor, int level){
+    if(ancestor < 1 || ancestor > 7 || level < 1 || level > 7 || !contains_level(ancestor, level)){
+      throw new IllegalArgumentException("level " + level + " does not lie in level " + ancestor);
+    }
+    int n = 1;
+    for(int lv = next_level(ancestor, level); lv != 0; lv = next_level(lv, level)) n *= CHILDREN[lv];
+    return(n);
+  }
+
+  // Covers of a region by the grid squares of level (1 to 6, 7 : extended 100m), see MeshCover.
+  // A square is in the cover if it meets the region, boundary included. The codes are emitted once
+  // each, grouped by 80km square (80km squares row by row from south to north, west to east).
+
+  // squares meeting latitude lat0 to lat1 and longitude long0 to long1 (crossing the 180th meridian
+  // if long0 > long1); latitudes and longitudes beyond the poles and the 180th meridian are clamped
+  public void meshcode_cover_bbox(int level, double lat0, double long0, double lat1, double long1, LongConsumer sink){
+    MeshCover.box(level, lat0, long0, lat1, long1).forEach(sink);
+  }
+
+  public LongStream meshcode_cover_bbox(int level, double lat0, double long0, double lat1, double long1){
+    return(MeshCover.box(level, lat0, long0, lat1, long1).stream());
+  }
+
+  // squares meeting the polygon with the vertices (latitude[off+i], longitude[off+i]) (i = 0 to len-1),
+  // closed from the last vertex to the first; edges are straight in latitude and longitude, a
+  // self-crossing polygon follows the even-odd rule, and the polygon must not cross the 180th
+  // meridian or have holes
+  public void meshcode_cover_polygon(int level, double[] latitude, double[] longitude, int off, int len, LongConsumer sink){
+    MeshCover.polygon(level, latitude, longitude, off, len).forEach(sink);
+  }
+
+  public LongStream meshcode_cover_polygon(int level, double[] latitude, double[] longitude, int off, int len){
+    return(MeshCover.polygon(level, latitude, longitude, off, len).stream());
+  }
+
+  // squares of level sharing area with the polygon with the vertices (latitude[off+i],
+  // longitude[off+i]) (i = 0 to len-1), each passed to visitor with the area in square metres of
+  // its part inside the polygon and the fraction of the square that part is (see MeshOverlap);
+  // squares inside the polygon take the area of the square without clipping. Edges are straight in
+  // latitude and longitude and must not cross each other; holes and crossings of the 180th
+  // meridian are not supported. With parallel set the 80km squares run in ForkJoin tasks and
+  // visitor is called from several threads at a time.
+  public void meshcode_overlap_polygon(int level, double[] latitude, double[] longitude, int off, int len, boolean parallel, MeshOverlap.Visitor visitor){
+    MeshOverlap.polygon(level, latitude, longitude, off, len, parallel, visitor);
+  }
+
+  // Squares of level (1 to 6, 7 : extended 100m) crossed by trajectories, see MeshTrace. The
+  // segments are straight lines in latitude and longitude; a segment whose longitudes differ by
+  // more than 180 degrees crosses the 180th meridian. Each visit of a square is emitted once, in the
+  // order the squares are crossed, including squares whose corner a segment clips.
+
+  // squares crossed by the trajectory with the vertices (latitude[off+i], longitude[off+i]) (i = 0 to len-1)
+  public void meshcode_trace(int level, double[] latitude, double[] longitude, int off, int len, LongConsumer sink){
+    MeshTrace.trace(level, latitude, longitude, off, len, sink);
+  }
+
+  // squares crossed by trajectories first to first+count-1, trajectory t having the vertices
+  // start[t] to start[t+1]-1 of latitude[] and longitude[]; visitor gets the trajectory, the code,
+  // the positions where the trajectory enters and leaves the square (a vertex index plus the
+  // fraction of the way to the next vertex) and the length in metres travelled in it
+  public void meshcode_trace_batch(int level, double[] latitude, double[] longitude, int[] start, int first, int count, MeshTrace.Visitor visitor){
+    MeshTrace.trace(level, latitude, longitude, start, first, count, visitor);
+  }
+
+  // Squares of level (1 to 6, 7 : extended 100m) near a point, see MeshNear. A square is as far
+  // from the point as its centre, by the geodesic on the WGS84 ellipsoid (Vincenty).
+
+  // squares whose centres lie within distance metres of (latitude, longitude), row by row from
+  // south to north, each row from west to east
+  public void meshcode_within(int level, double latitude, double longitude, double distance, LongConsumer sink){
+    MeshNear.within(this, level, latitude, longitude, distance, sink);
+  }
+
+  // the k squares for which filter holds (every square if filter is null) nearest to (latitude,
+  // longitude) and within maxDistance metres of it, nearest first: codes into out[off] to
+  // out[off+k-1] and distances in metres into distance[off] to distance[off+k-1] (unless distance
+  // is null); returns the number of squares found, fewer than k if maxDistance holds fewer
+  public int meshcode_nearest(int level, double latitude, double longitude, int k, double maxDistance, LongPredicate filter,
+                              long[] out, double[] distance, int off){
+    return(MeshNear.nearest(this, level, latitude, longitude, k, maxDistance, filter, out, distance, off));
+  }
+
+  // Keys sorting the squares of a level along the Z curve, see MeshKey.
+
+  // key of meshcode (0 if meshcode is not a grid square code); keys of one level sort together,
+  // and within a level squares close on the ground get close keys
+  public long meshcode_to_key(long meshcode, boolean extension){
+    return(MeshKey.key(meshcode, extension));
+  }
+
+  // grid square code of key (its level follows from the key), 0 if key is not a key of meshcode_to_key
+  public long key_to_meshcode(long key){
+    return(MeshKey.meshcode(key));
+  }
+
+  // ranges of consecutive keys holding the keys of all squares of level (1 to 6, 7 : extended 100m)
+  // meeting the box (latitude lat0 to lat1, longitude long0 to long1, crossing the 180th meridian if
+  // long0 > long1), the first and the last key of each range into out[off+2i] and out[off+2i+1] in
+  // increasing order; returns the number of ranges, at most maxRanges (out needs 2*maxRanges
+  // values). With few ranges allowed they hold keys of squares near the box as well.
+  public int meshcode_key_ranges(int level, double lat0, double long0, double lat1, double long1, int maxRanges, long[] out, int off){
+    return(MeshKey.ranges(level, lat0, long0, lat1, long1, maxRanges, out, off));
+  }
+
+  // codes of level (1 to 6, 7 : extended 100m) of the positions latitude[off+i], longitude[off+i]
+  // (i = 0 to len-1) sorted by code, or by meshcode_to_key with zorder, into out[outOff] to
+  // out[outOff+len-1], and the index into latitude[] and longitude[] of the position of each code
+  // into order[outOff] to order[outOff+len-1]; positions in one square keep their order
+  public void meshcode_sort_batch(int level, boolean zorder, double[] latitude, double[] longitude, int off, int len,
+                                  long[] out, int[] order, int outOff){
+    PointSort.sort(this, level, zorder, latitude, longitude, off, len, out, order, outOff);
+  }
+
+  // number of squares of each level in one square of its parent level, and the parent level
+  static final int[] CHILDREN = MeshLevel.table(lv -> lv.factor*lv.factor);
+
+  static int parent_level(int level){
+    MeshLevel parent = MeshLevel.LEVELS[level].parent;
+    return(parent == null ? 0 : parent.level);
+  }
+
+  // true if squares of level lie in squares of ancestor (a level contains itself)
+  static boolean contains_level(int ancestor, int level){
+    return(MeshLevel.LEVELS[level].lies_in(MeshLevel.LEVELS[ancestor]));
   }
 
+  // the level after lv on the way down to level, 0 once level is reached
+  static int next_level(int lv, int level){
+    if(lv == level) return(0);
+    MeshLevel next = MeshLevel.LEVELS[level];
+    while(next.parent.level != lv) next = next.parent;
+    return(next.level);
+  }
+
+  // trailing digits of the j'th (0 to CHILDREN[level]-1) square of level in its parent square, in increasing order
+  static int child_suffix(int level, int j){
+    return(MeshLevel.LEVELS[level].child_suffix(j));
+  }
+
+  // the number (0 to CHILDREN[level]-1) of the square of level with the trailing digits suffix in its parent square
+  static int child_index(int level, int suffix){
+    return(MeshLevel.LEVELS[level].child_index(suffix));
+  }
+
+  private static final int[] NEIGHBOUR_DLAT = {1, 1, 0, -1, -1, -1, 0, 1};
+  private static final int[] NEIGHBOUR_DLONG = {0, 1, 1, 1, 0, -1, -1, -1};
+
+  // Squares are addressed by a global row y (-LEVEL_ROWS to LEVEL_ROWS-1, northwards from the
+  // south pole, 0 is the first row north of the equator) and a global column x (-LEVEL_COLS to
+  // LEVEL_COLS-1, eastwards from the 180th meridian, 0 is the first column east of the prime meridian).
+
+  // code of the square dlat rows and dlong columns from global row y and global column x, 0 beyond a pole
+  private static long neighbour(int level, int y, int x, int dlat, int dlong){
+    long yy = (long)y + dlat;
+    int rows = LEVEL_ROWS[level];
+    if(yy < -rows || yy >= rows) return(0);
+    return(cell(level, (int)yy, (long)x + dlong, LEVEL_COLS[level]));
+  }
+
+  // code of the square at global row y and global column x (taken modulo 2*cols)
+  static long cell(int level, int y, long gx, int cols){
+    int x = gx >= -cols && gx < cols ? (int)gx : (int)Math.floorMod(gx + cols, 2L*cols) - cols;
+    return(meshcode_of_cell(level, y < 0, x < 0, y < 0 ? -y-1 : y, x < 0 ? -x-1 : x));
+  }
+
+  // WGS84
+  static final double WGS84_F = 1/298.257223563;
+  static final double WGS84_A = 6378137.0;
+  private static final double WGS84_B = 6356752.314245;
+  // coefficients of the meridian arc M(phi) = MERIDIAN_R*(phi + MERIDIAN_C2*sin(2phi) + ... + MERIDIAN_C8*sin(8phi))
+  // (Helmert's series in the third flattening n, truncated after n^4 : about 1e-7 m over the whole meridian)
+  private static final double N3 = WGS84_F/(2.0-WGS84_F);
+  private static final double MERIDIAN_R = WGS84_A/(1.0+N3)*(1.0 + N3*N3/4.0 + N3*N3*N3*N3/64.0);
+  private static final double MERIDIAN_C2 = -1.5*(N3 - N3*N3*N3/8.0)/(1.0 + N3*N3/4.0 + N3*N3*N3*N3/64.0);
+  private static final double MERIDIAN_C4 = 15.0/16.0*(N3*N3 - N3*N3*N3*N3/4.0)/(1.0 + N3*N3/4.0 + N3*N3*N3*N3/64.0);
+  private static final double MERIDIAN_C6 = -35.0/48.0*N3*N3*N3/(1.0 + N3*N3/4.0 + N3*N3*N3*N3/64.0);
+  private static final double MERIDIAN_C8 = 315.0/512.0*N3*N3*N3*N3/(1.0 + N3*N3/4.0 + N3*N3*N3*N3/64.0);
+
+  // distance along the meridian from the equator to latitude (in degrees)
+  static double meridian_arc(double latitude){
+      double phi = latitude/180.0*Math.PI;
+      double s2 = Math.sin(2.0*phi);
+      double c2 = Math.cos(2.0*phi);
+      // sin(4phi), sin(6phi) and sin(8phi) from sin(2phi) and cos(2phi)
+      double s4 = 2.0*s2*c2;
+      double c4 = 1.0 - 2.0*s2*s2;
+      double s6 = s4*c2 + c4*s2;
+      double s8 = 2.0*s4*c4;
+      return(MERIDIAN_R*(phi + MERIDIAN_C2*s2 + MERIDIAN_C4*s4 + MERIDIAN_C6*s6 + MERIDIAN_C8*s8));
+  }
+
+  // counters of the encoder, the decoder and Vincenty since the start or the last stats_reset
+  // (all zero unless the JVM runs with -Dworldmesh.stats=true), see MeshStats
+  public static MeshStats.Snapshot stats_snapshot(){
+    return(MeshStats.snapshot());
+  }
+
+  public static void stats_reset(){
+    MeshStats.reset();
+  }
+
+  // maximum number of steps of the Vincenty iteration and of the bracketed solver it falls back to
+  static final int VINCENTY_MAX_ITER = 20;
+  static final int BRACKET_MAX_ITER = 200;
+
+  // Geodesic distance in meters, with a bounded amount of work for every input.
+  //
+  // Degenerate cases are solved explicitly : points on the same meridian and points at a
+  // pole (the geodesic is the meridian arc, e.g. H of a grid square), points on the equator
+  // (s = a*L up to the point where the geodesic leaves the equator) and coincident points (0).
+  // Everything else, including points on the same parallel, goes through the Vincenty
+  // iteration, whose geodesic is shorter than the arc along the parallel. The iteration is
+  // cut off after VINCENTY_MAX_ITER steps, which only happens for nearly antipodal points;
+  // those are solved by inverse_bracketed instead. NaN or out of range latitudes give NaN.
+  // With instrumentation on (MeshStats) the calls, their iterations and the fallbacks are counted.
   public double Vincenty(double latitude1, double longitude1, double latitude2, double longitude2){
-      // WGS84
-      double f = 1/298.257223563;
-      double a = 6378137.0;
-      double b = 6356752.314245;
-      //      
+    if(!MeshStats.ENABLED) return(vincenty(latitude1, longitude1, latitude2, longitude2, null));
+    int[] steps = new int[2];
+    long t0 = MeshStats.start();
+    double s = vincenty(latitude1, longitude1, latitude2, longitude2, steps);
+    MeshStats.vincenty(t0, latitude1, longitude1, latitude2, longitude2, s, steps[0], steps[1] != 0);
+    return(s);
+  }
+
+  // steps (if not null) gets the number of steps of the iteration in steps[0] and 1 in steps[1]
+  // if the bracketed solver was used
+  private static double vincenty(double latitude1, double longitude1, double latitude2, double longitude2, int[] steps){
+      double f = WGS84_F;
+      double a = WGS84_A;
+      //
+      if(!(Math.abs(latitude1) <= 90.0 && Math.abs(latitude2) <= 90.0)) return(Double.NaN);
+      double dlong = longitude1 - longitude2;
+      if(!(Math.abs(dlong) <= 180.0)) dlong = Math.IEEEremainder(dlong, 360.0);
+      if(Double.isNaN(dlong)) return(Double.NaN);
+      double L = dlong/180.0*Math.PI;
+      if(dlong == 0.0 || Math.abs(latitude1) == 90.0 || Math.abs(latitude2) == 90.0){
+	  return(Math.abs(meridian_arc(latitude2) - meridian_arc(latitude1)));
+      }
+      if(latitude1 == 0.0 && latitude2 == 0.0 && Math.abs(L) <= (1.0-f)*Math.PI){
+	  return(a*Math.abs(L));
+      }
+      if(Math.abs(L) > 0.5*Math.PI){
+	  if(steps != null) steps[1] = 1;
+	  return(inverse_bracketed(latitude1, latitude2, Math.abs(L)));
+      }
       double cs = 0.0;
       double cscc = 0.0;
       double sinsigma = 0.0;
@@ -576,48 +1020,142 @@ class Worldmesh{
       double cos2alpha = 0.0;
       double C = 0.0;
       double lambda0 = 0.0;
-      double cos2sigma = 0.0;
-      double A = 0.0;
-      double dsigma = 0.0;
-      double B = 0.0;
-      double u2 = 0.0;
       double cos2sigmam = 0.0;
       //
-      double L = (longitude1 - longitude2)/180.0*Math.PI;
       double U1 = Math.atan((1.0-f)*Math.tan(latitude1/180.0*Math.PI));
       double U2 = Math.atan((1.0-f)*Math.tan(latitude2/180.0*Math.PI));
+      double sinU1 = Math.sin(U1);
+      double cosU1 = Math.cos(U1);
+      double sinU2 = Math.sin(U2);
+      double cosU2 = Math.cos(U2);
+      double sinU1sinU2 = sinU1*sinU2;
+      double cosU1cosU2 = cosU1*cosU2;
       double lambda = L;
       double dlambda = 10.0;
-      while(Math.abs(dlambda) > 1e-12){
-	  cs = Math.cos(U2)*Math.sin(lambda);
-	  cscc = Math.cos(U1)*Math.sin(U2)-Math.sin(U1)*Math.cos(U2)*Math.cos(lambda);
+      for(int iter = 0; iter < VINCENTY_MAX_ITER && Math.abs(dlambda) > 1e-12; iter++){
+	  if(steps != null) steps[0]++;
+	  double sinlambda = Math.sin(lambda);
+	  double coslambda = Math.cos(lambda);
+	  cs = cosU2*sinlambda;
+	  cscc = cosU1*sinU2-sinU1*cosU2*coslambda;
 	  sinsigma = Math.sqrt(cs*cs + cscc*cscc);
-	  cossigma = Math.sin(U1)*Math.sin(U2)+Math.cos(U1)*Math.cos(U2)*Math.cos(lambda);
-	  sigma = Math.atan(sinsigma/cossigma);
-	  sinalpha = Math.cos(U1)*Math.cos(U2)*Math.sin(lambda)/sinsigma;
+	  if(sinsigma == 0.0) break; // the auxiliary sphere gives antipodal points : no azimuth
+	  cossigma = sinU1sinU2+cosU1cosU2*coslambda;
+	  sigma = Math.atan2(sinsigma, cossigma);
+	  sinalpha = cosU1cosU2*sinlambda/sinsigma;
 	  cos2alpha = 1.0 - sinalpha*sinalpha;
 	  if(cos2alpha == 0.0){
 	      C = 0.0;
 	      lambda0 = L + f*sinalpha*sigma;
 	  }else{
-	      cos2sigmam = cossigma - 2.0*Math.sin(U1)*Math.sin(U2)/cos2alpha;
+	      cos2sigmam = cossigma - 2.0*sinU1sinU2/cos2alpha;
 	      C = f/16.0*cos2alpha*(4.0+f*(4.0-3.0*cos2alpha));
 	      lambda0 = L + (1.0-C)*f*sinalpha*(sigma + C*sinsigma*(cos2sigmam + C*cossigma*(-1.0+2.0*cos2sigmam*cos2sigmam)));
 	  }
 	  dlambda = lambda0 - lambda;
 	  lambda = lambda0;
+	  if(Math.abs(lambda) > Math.PI) break; // diverging
       }
-      if(C == 0.0){
+      if(!(Math.abs(dlambda) <= 1e-12) || sinsigma == 0.0){
+	  if(steps != null) steps[1] = 1;
+	  return(inverse_bracketed(latitude1, latitude2, Math.abs(L)));
+      }
+      return(vincenty_distance(sinsigma, cossigma, sigma, cos2alpha, cos2sigmam));
+  }
+
+  // s = b*A*(sigma-dsigma) of Vincenty's inverse formula
+  private static double vincenty_distance(double sinsigma, double cossigma, double sigma, double cos2alpha, double cos2sigmam){
+      double a = WGS84_A;
+      double b = WGS84_B;
+      double A, dsigma;
+      if(cos2alpha == 0.0){
 	  A = 1.0;
 	  dsigma = 0.0;
       }else{
-	  u2 = cos2alpha * (a*a-b*b)/(b*b);
+	  double u2 = cos2alpha * (a*a-b*b)/(b*b);
 	  A = 1.0 + u2/16384.0*(4096.0 + u2 * (-768.0 + u2*(320.0-175.0*u2)));
-	  B = u2/1024.0*(256.0+u2*(-128.0+u2*(74.0-47.0*u2)));
+	  double B = u2/1024.0*(256.0+u2*(-128.0+u2*(74.0-47.0*u2)));
 	  dsigma = B*sinsigma*(cos2sigmam + 1.0/4.0*B*(cossigma*(-1.0+2.0*cos2sigmam*cos2sigmam)-1.0/6.0*B*cos2sigmam*(-3.0+4.0*sinsigma*sinsigma)*(-3.0+4.0*cos2sigmam*cos2sigmam)));
       }
-      double s = b*A*(sigma-dsigma);
-      return(s);
+      return(b*A*(sigma-dsigma));
+  }
+
+  // Inverse problem solved for the azimuth alpha1 at the first point instead of for lambda
+  // (C. F. F. Karney, Algorithms for geodesics, J. Geodesy 87 (2013)). The points are swapped
+  // and mirrored so that latitude1 <= 0 and |latitude2| <= |latitude1|; then the geodesic
+  // leaving the first point with azimuth alpha1 in [0, pi] meets latitude2 going north, and
+  // the longitude difference lambda12 it has reached there grows monotonically with alpha1.
+  // lambda12(alpha1) = L is solved by Newton steps kept inside a bracket; a step is replaced
+  // by bisection whenever the bracket has not halved over the last two steps, so every two
+  // evaluations at least halve it and BRACKET_MAX_ITER bounds the work whatever the input. lambda12 and the
+  // distance use the same series in f as the Vincenty iteration. L is the absolute
+  // longitude difference in radians (0 to pi).
+  static double inverse_bracketed(double latitude1, double latitude2, double L){
+      double f = WGS84_F;
+      if(Math.abs(latitude1) < Math.abs(latitude2)){
+	  double t = latitude1; latitude1 = latitude2; latitude2 = t;
+      }
+      if(latitude1 > 0.0){
+	  latitude1 = -latitude1;
+	  latitude2 = -latitude2;
+      }
+      // reduced latitudes as (sin, cos) pairs
+      double phi1 = latitude1/180.0*Math.PI;
+      double phi2 = latitude2/180.0*Math.PI;
+      double sbet1 = (1.0-f)*Math.sin(phi1), cbet1 = Math.cos(phi1);
+      double n1 = Math.hypot(sbet1, cbet1);
+      sbet1 /= n1; cbet1 /= n1;
+      double sbet2 = (1.0-f)*Math.sin(phi2), cbet2 = Math.cos(phi2);
+      double n2 = Math.hypot(sbet2, cbet2);
+      sbet2 /= n2; cbet2 /= n2;
+      if(cbet2 < cbet1) cbet2 = cbet1; // rounding of |latitude2| == |latitude1|
+      // solved for delta = alpha1 - pi/2, which keeps the full precision of doubles close to
+      // 0 where nearly equatorial geodesics need it; start from the azimuth on the auxiliary sphere
+      double delta = Math.atan2(sbet1*cbet2*Math.cos(L) - cbet1*sbet2, cbet2*Math.sin(L));
+      double lo = -0.5*Math.PI, hi = 0.5*Math.PI;
+      double width1 = hi - lo, width2 = hi - lo; // bracket after the last two steps
+      double[] g = new double[6];
+      for(int iter = 0; iter < BRACKET_MAX_ITER; iter++){
+	  lambda12(delta, sbet1, cbet1, sbet2, cbet2, g);
+	  double v = g[0] - L;
+	  if(Math.abs(v) <= 1e-14 || hi - lo <= 1e-15*Math.max(Math.abs(lo), Math.abs(hi))) break;
+	  if(v > 0.0) hi = delta; else lo = delta;
+	  double next = g[1] > 0.0 ? delta - v/g[1] : Double.NaN;
+	  // bisect if the Newton step leaves the bracket or two steps did not halve it
+	  boolean bisect = !(next > lo && next < hi) || hi - lo > 0.5*width2;
+	  width2 = width1;
+	  width1 = hi - lo;
+	  delta = bisect ? 0.5*(lo + hi) : next;
+      }
+      return(vincenty_distance(g[2], g[3], Math.atan2(g[2], g[3]), g[4], g[5]));
+  }
+
+  // lambda12 of the geodesic leaving (sbet1, cbet1) with azimuth alpha1 = pi/2 + delta until it meets sbet2 going north
+  // g[0] : lambda12, g[1] : approximate d lambda12 / d delta, g[2] to g[5] : sin sigma12, cos sigma12, cos^2 alpha0, cos 2sigmam
+  private static void lambda12(double delta, double sbet1, double cbet1, double sbet2, double cbet2, double[] g){
+      double f = WGS84_F;
+      double salp1 = Math.cos(delta), calp1 = -Math.sin(delta);
+      double salp0 = salp1*cbet1;
+      double cos2alpha = 1.0 - salp0*salp0;
+      double calp2 = Math.sqrt(calp1*cbet1*calp1*cbet1 + (cbet2-cbet1)*(cbet2+cbet1))/cbet2;
+      // sigma and omega counted from the node where the geodesic crosses the equator going north
+      double ssig1 = sbet1, csig1 = calp1*cbet1;
+      double ssig2 = sbet2, csig2 = calp2*cbet2;
+      double somg1 = salp0*sbet1, comg1 = csig1;
+      double somg2 = salp0*sbet2, comg2 = csig2;
+      double nsig1 = Math.hypot(ssig1, csig1), nsig2 = Math.hypot(ssig2, csig2);
+      double sinsigma = Math.max(0.0, csig1*ssig2 - ssig1*csig2)/(nsig1*nsig2);
+      double cossigma = (csig1*csig2 + ssig1*ssig2)/(nsig1*nsig2);
+      double sigma = Math.atan2(sinsigma, cossigma);
+      double omega = Math.atan2(Math.max(0.0, comg1*somg2 - somg1*comg2), comg1*comg2 + somg1*somg2);
+      double cos2sigmam = (csig1*csig2 - ssig1*ssig2)/(nsig1*nsig2);
+      double C = f/16.0*cos2alpha*(4.0+f*(4.0-3.0*cos2alpha));
+      g[0] = omega - (1.0-C)*f*salp0*(sigma + C*sinsigma*(cos2sigmam + C*cossigma*(-1.0+2.0*cos2sigmam*cos2sigmam)));
+      g[1] = calp2 > 0.0 ? sinsigma/(calp2*cbet2) : 0.0; // reduced length on the sphere over cos(alpha2)cos(beta2)
+      g[2] = sinsigma;
+      g[3] = cossigma;
+      g[4] = cos2alpha;
+      g[5] = cos2sigmam;
   }
 
   public Worldmesh cal_area_from_meshcode(long meshcode){
@@ -629,6 +1167,12 @@ class Worldmesh{
       return(this.cal_area_from_latlong(latlong));
   }
 
+  // calculate W1, W2, H and A of the grid square from the precomputed table of MeshAreaTable
+  // returns false (and leaves res untouched) if meshcode is not a grid square code
+  public boolean cal_area_from_table(long meshcode, boolean extension, Worldmesh res){
+      return(MeshAreaTable.lookup(meshcode, extension, res));
+  }
+
   public Worldmesh cal_area_from_latlong(Worldmesh latlong){
       latlong.W1 = this.Vincenty(latlong.lat0,latlong.long0,latlong.lat0,latlong.long1);
       latlong.W2 = this.Vincenty(latlong.lat1,latlong.long0,latlong.lat1,latlong.long1);